@@ -0,0 +1,80 @@
+package com.csabapro.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.result.Result;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientMessageBenchmark {
+    static final String SESSION_ID = "3f2a9c1e-7b4d-4e8a-9c0f-1a2b3c4d5e6f";
+
+    @Param({ "CreateSession", "FindSession", "JoinSession", "SendTorpedo", "PlaceShip" })
+    public ClientMessageType type;
+
+    private ClientMessage message;
+    private String json;
+    private byte[] bytes;
+
+    static ClientMessage sample(ClientMessageType type) {
+        switch (type) {
+            case CreateSession:
+                return ClientMessage.CreateSession(true);
+            case FindSession:
+                return ClientMessage.FindSession();
+            case JoinSession:
+                return ClientMessage.JoinSession(SESSION_ID);
+            case SendTorpedo:
+                return ClientMessage.SendTorpedo(SESSION_ID, new Vec2(4, 7));
+            case PlaceShip:
+                return ClientMessage.PlaceShip(SESSION_ID, new Ship(new Vec2(2, 3), Orientation.Vertical, 4));
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        message = sample(type);
+        json = message.serialize();
+        bytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Result<ClientMessage, ErrorMessage> deserializeString() {
+        return ClientMessage.deserialize(json);
+    }
+
+    @Benchmark
+    public Result<ClientMessage, ErrorMessage> deserializeBytes() {
+        return ClientMessage.deserialize(bytes);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return message.serialize();
+    }
+}
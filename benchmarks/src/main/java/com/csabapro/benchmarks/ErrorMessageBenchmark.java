@@ -0,0 +1,70 @@
+package com.csabapro.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.csabapro.core.game.Action;
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ErrorCode;
+import com.csabapro.core.messaging.ErrorMessage;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ErrorMessageBenchmark {
+    @Param({ "SessionNotFound", "ActionOutOfTurn", "ShipOutOfBounds", "TorpedoOverlap", "IncorrectShipSize" })
+    public ErrorCode code;
+
+    private final String sessionId = ClientMessageBenchmark.SESSION_ID;
+    private Ship ship;
+    private Vec2 position;
+
+    @Setup
+    public void setup() {
+        ship = new Ship(new Vec2(8, 3), Orientation.Horizontal, 4);
+        position = new Vec2(4, 7);
+    }
+
+    private ErrorMessage create() {
+        switch (code) {
+            case SessionNotFound:
+                return ErrorMessage.SessionNotFound(sessionId);
+            case ActionOutOfTurn:
+                return ErrorMessage.ActionOutOfTurn(sessionId, Action.TorpedoSend);
+            case ShipOutOfBounds:
+                return ErrorMessage.ShipOutOfBounds(sessionId, ship, ship.getOutOfBoundsPositions(new Vec2(9, 9)));
+            case TorpedoOverlap:
+                return ErrorMessage.TorpedoOverlap(sessionId, position);
+            case IncorrectShipSize:
+                return ErrorMessage.IncorrectShipSize(sessionId, ship);
+            default:
+                throw new IllegalArgumentException(code.name());
+        }
+    }
+
+    @Benchmark
+    public ErrorMessage factory() {
+        return create();
+    }
+
+    @Benchmark
+    public String factoryAndSerialize() {
+        return create().serialize();
+    }
+}
@@ -0,0 +1,76 @@
+package com.csabapro.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ServerMessage;
+import com.csabapro.core.messaging.ServerMessageType;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerMessageBenchmark {
+    @Param({ "Ack", "GiveSessionId", "GameStart", "GameEnd", "EnemyDisconnected", "TurnChange", "SendTorpedoAck", "ReceiveTorpedo" })
+    public ServerMessageType type;
+
+    private ServerMessage message;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    static ServerMessage sample(ServerMessageType type) {
+        String sessionId = ClientMessageBenchmark.SESSION_ID;
+        switch (type) {
+            case Ack:
+                return ServerMessage.Ack();
+            case GiveSessionId:
+                return ServerMessage.GiveSessionId(sessionId);
+            case GameStart:
+                return ServerMessage.GameStart(sessionId, true, new Vec2(10, 10), Arrays.asList(5, 4, 3, 3, 2), 17);
+            case GameEnd:
+                return ServerMessage.GameEnd(123456789L, true);
+            case EnemyDisconnected:
+                return ServerMessage.EnemyDisconnected(sessionId);
+            case TurnChange:
+                return ServerMessage.TurnChange(sessionId, false);
+            case SendTorpedoAck:
+                return ServerMessage.SendTorpedoAck(sessionId, new Vec2(4, 7), true);
+            case ReceiveTorpedo:
+                return ServerMessage.ReceiveTorpedo(sessionId, new Vec2(4, 7));
+            default:
+                throw new IllegalArgumentException(type.name());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        message = sample(type);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return message.serialize();
+    }
+
+    @Benchmark
+    public int serializeIntoBuffer() throws IOException {
+        buffer.clear();
+        return message.serialize(buffer);
+    }
+}
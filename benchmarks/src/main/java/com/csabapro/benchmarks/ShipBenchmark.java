@@ -0,0 +1,66 @@
+package com.csabapro.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShipBenchmark {
+    private Vec2 startPos;
+    private Vec2 upperBounds;
+    private Ship ship;
+    /** The cells of a standard fleet of 5, 4, 3, 3 and 2 */
+    private List<Vec2> fleetPositions;
+
+    @Setup
+    public void setup() {
+        startPos = new Vec2(2, 3);
+        upperBounds = new Vec2(9, 9);
+        ship = new Ship(startPos, Orientation.Horizontal, 4);
+        fleetPositions = new ArrayList<>();
+        int[] sizes = { 5, 4, 3, 3, 2 };
+        for (int i = 0; i < sizes.length; i++)
+            fleetPositions.addAll(new Ship(new Vec2(0, i * 2), Orientation.Horizontal, sizes[i]).getPositions());
+    }
+
+    @Benchmark
+    public Ship construct() {
+        return new Ship(startPos, Orientation.Vertical, 4);
+    }
+
+    @Benchmark
+    public Ship rotate() {
+        ship.rotate();
+        return ship;
+    }
+
+    @Benchmark
+    public List<Vec2> outOfBounds() {
+        return ship.getOutOfBoundsPositions(upperBounds);
+    }
+
+    @Benchmark
+    public List<Vec2> overlap() {
+        return ship.getOverlappingPositions(fleetPositions);
+    }
+}
@@ -0,0 +1,44 @@
+package com.csabapro.benchmarks;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.result.Result;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Vec2Benchmark {
+    @Param({ "4,7", "123,-45", "4;7" })
+    public String input;
+
+    @Benchmark
+    public Vec2 fromString() {
+        try {
+            return Vec2.fromString(input);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Result<Vec2, ErrorMessage> parse() {
+        return Vec2.parse(input);
+    }
+}
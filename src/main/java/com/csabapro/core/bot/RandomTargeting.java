@@ -0,0 +1,68 @@
+package com.csabapro.core.bot;
+
+import java.util.SplittableRandom;
+
+/**
+ * Fires at a uniformly random cell that was not fired at yet, the baseline to compare other strategies to.
+ * <p>
+ * The cells are kept in an array that is shuffled one step per torpedo, so a move allocates nothing.
+ */
+public final class RandomTargeting implements TargetingStrategy {
+    private final SplittableRandom random;
+    private int width;
+    /** The cells not fired at yet come after {@link #fired} */
+    private int[] cells = new int[0];
+    /** The index of every cell in {@link #cells} */
+    private int[] indexOf = new int[0];
+    private int fired;
+
+    public RandomTargeting(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public void start(String sessionId, int width, int height, int[] shipSizes) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Board size must be positive, got: " + width + "," + height);
+        this.width = width;
+        int count = width * height;
+        if (cells.length != count) {
+            cells = new int[count];
+            indexOf = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            cells[i] = i;
+            indexOf[i] = i;
+        }
+        fired = 0;
+    }
+
+    @Override
+    public int nextCell() {
+        if (fired == cells.length)
+            return -1;
+        swap(fired, fired + random.nextInt(cells.length - fired));
+        return cells[fired];
+    }
+
+    /**
+     * A cell that was already recorded is ignored
+     */
+    @Override
+    public void record(int x, int y, boolean isHit) {
+        int cell = y * width + x;
+        if (x < 0 || x >= width || cell < 0 || cell >= cells.length || indexOf[cell] < fired)
+            return;
+        swap(fired, indexOf[cell]);
+        fired++;
+    }
+
+    private void swap(int i, int j) {
+        int a = cells[i];
+        int b = cells[j];
+        cells[i] = b;
+        cells[j] = a;
+        indexOf[b] = i;
+        indexOf[a] = j;
+    }
+}
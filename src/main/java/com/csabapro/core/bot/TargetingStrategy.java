@@ -0,0 +1,27 @@
+package com.csabapro.core.bot;
+
+/**
+ * Decides where a player fires, given the results of its earlier torpedoes.
+ * <p>
+ * Implementations are fed one game at a time and are not expected to be thread-safe.
+ *
+ * @see TorpedoBot
+ * @see RandomTargeting
+ */
+public interface TargetingStrategy {
+    /**
+     * Forgets the previous game and starts on an empty board
+     * @param shipSizes the size of every ship of the enemy fleet
+     */
+    void start(String sessionId, int width, int height, int[] shipSizes);
+
+    /**
+     * @return the cell to fire at next packed as <code>y * width + x</code>, -1 if every cell was fired at
+     */
+    int nextCell();
+
+    /**
+     * Records the result of a torpedo
+     */
+    void record(int x, int y, boolean isHit);
+}
@@ -0,0 +1,257 @@
+package com.csabapro.core.bot;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.ServerMessageHandler;
+
+/**
+ * Picks torpedo targets with a hunt/target probability density.
+ * <p>
+ * For every cell the bot keeps the number of ways the enemy fleet could cover it, counting every
+ * placement of every ship that does not cover a known miss. While it hunts it fires at the cell with
+ * the highest count. Once it hit something, placements are also weighted by the hits they explain, and
+ * the bot targets the cells around the hits first. A sunk ship is not reported, so its hits keep drawing
+ * torpedoes until the misses around it rule out the placements through it.
+ * <p>
+ * The counts live in <code>int[]</code>s and are updated by walking only the placements through the cell
+ * that was just fired at, so a move costs a scan of the board and allocates nothing.
+ * <p>
+ * The bot only fires, the ships of its own fleet have to be placed separately. It is fed the
+ * {@link com.csabapro.core.messaging.ServerMessage}s of its player as a {@link ServerMessageHandler},
+ * or directly with {@link #start} and {@link #record}. It is not thread-safe.
+ */
+public final class TorpedoBot implements TargetingStrategy, ServerMessageHandler {
+    private static final byte UNKNOWN = 0;
+    private static final byte MISS = 1;
+    private static final byte HIT = 2;
+
+    private final SplittableRandom random;
+
+    private String sessionId;
+    private int width;
+    private int height;
+    /** The distinct sizes of the enemy fleet and the number of ships of each */
+    private int[] sizes = new int[0];
+    private int[] counts = new int[0];
+    private byte[] state = new byte[0];
+    /** Number of placements covering the cell that do not cover a miss */
+    private int[] density = new int[0];
+    /** The same placements, each weighted by the number of hits it covers */
+    private int[] targetDensity = new int[0];
+    private int unknownCells;
+    private boolean isMyTurn;
+
+    public TorpedoBot() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * @param seed breaks the ties between equally good cells, the same seed fires the same torpedoes
+     */
+    public TorpedoBot(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public void start(String sessionId, int width, int height, int[] shipSizes) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Board size must be positive, got: " + width + "," + height);
+        this.sessionId = sessionId;
+        this.width = width;
+        this.height = height;
+        this.isMyTurn = false;
+        int cells = width * height;
+        if (state.length != cells) {
+            state = new byte[cells];
+            density = new int[cells];
+            targetDensity = new int[cells];
+        } else {
+            Arrays.fill(state, UNKNOWN);
+            Arrays.fill(density, 0);
+            Arrays.fill(targetDensity, 0);
+        }
+        unknownCells = cells;
+
+        int[] distinct = new int[shipSizes.length];
+        int[] multiplicity = new int[shipSizes.length];
+        int n = 0;
+        outer:
+        for (int size : shipSizes) {
+            if (size <= 0)
+                continue;
+            for (int i = 0; i < n; i++) {
+                if (distinct[i] == size) {
+                    multiplicity[i]++;
+                    continue outer;
+                }
+            }
+            distinct[n] = size;
+            multiplicity[n++] = 1;
+        }
+        sizes = Arrays.copyOf(distinct, n);
+        counts = Arrays.copyOf(multiplicity, n);
+
+        for (int i = 0; i < sizes.length; i++) {
+            int size = sizes[i];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (x + size <= width)
+                        add(density, y * width + x, 1, size, counts[i]);
+                    if (y + size <= height)
+                        add(density, y * width + x, width, size, counts[i]);
+                }
+            }
+        }
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public boolean isMyTurn() {
+        return isMyTurn;
+    }
+
+    /**
+     * A cell that was already recorded is ignored
+     */
+    @Override
+    public void record(int x, int y, boolean isHit) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return;
+        int cell = y * width + x;
+        if (state[cell] != UNKNOWN)
+            return;
+
+        for (int i = 0; i < sizes.length; i++) {
+            int size = sizes[i];
+            int count = counts[i];
+            // horizontal placements through the cell
+            for (int startX = Math.max(0, x - size + 1); startX <= Math.min(x, width - size); startX++)
+                update(y * width + startX, 1, size, count, isHit);
+            // vertical placements through the cell
+            for (int startY = Math.max(0, y - size + 1); startY <= Math.min(y, height - size); startY++)
+                update(startY * width + x, width, size, count, isHit);
+        }
+        state[cell] = isHit ? HIT : MISS;
+        unknownCells--;
+    }
+
+    /**
+     * Updates the counts of one placement for a torpedo at one of its cells, which is still unknown
+     */
+    private void update(int start, int step, int size, int count, boolean isHit) {
+        int hits = 0;
+        for (int i = 0, cell = start; i < size; i++, cell += step) {
+            if (state[cell] == MISS)
+                return; // the placement was already ruled out
+            if (state[cell] == HIT)
+                hits++;
+        }
+        if (isHit) {
+            // the placement explains one more hit
+            add(targetDensity, start, step, size, count);
+        } else {
+            // the placement is ruled out
+            add(density, start, step, size, -count);
+            if (hits > 0)
+                add(targetDensity, start, step, size, -count * hits);
+        }
+    }
+
+    private static void add(int[] counts, int start, int step, int size, int value) {
+        for (int i = 0, cell = start; i < size; i++, cell += step)
+            counts[cell] += value;
+    }
+
+    @Override
+    public int nextCell() {
+        int best = -1;
+        int bestTarget = -1;
+        int bestDensity = -1;
+        int ties = 0;
+        for (int cell = 0; cell < state.length; cell++) {
+            if (state[cell] != UNKNOWN)
+                continue;
+            int target = targetDensity[cell];
+            int d = density[cell];
+            if (target > bestTarget || (target == bestTarget && d > bestDensity)) {
+                best = cell;
+                bestTarget = target;
+                bestDensity = d;
+                ties = 1;
+            } else if (target == bestTarget && d == bestDensity && random.nextInt(++ties) == 0) {
+                best = cell;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the position to fire at next, null if every cell was fired at
+     */
+    public Vec2 nextTarget() {
+        int cell = nextCell();
+        return cell < 0 ? null : Vec2.of(cell % width, cell / width);
+    }
+
+    /**
+     * Fills <code>into</code> with the next torpedo, so that a bot can reuse one message for the whole game
+     * @return <code>into</code>, or null if every cell was fired at
+     */
+    public ClientMessage nextMove(ClientMessage into) {
+        Vec2 target = nextTarget();
+        if (target == null)
+            return null;
+        into.reset();
+        into.type = ClientMessageType.SendTorpedo;
+        into.sessionId = sessionId;
+        into.torpedoPos = target;
+        return into;
+    }
+
+    /**
+     * @return the next torpedo as a new <code>SendTorpedo</code>, null if every cell was fired at
+     */
+    public ClientMessage nextMove() {
+        Vec2 target = nextTarget();
+        return target == null ? null : ClientMessage.SendTorpedo(sessionId, target);
+    }
+
+    /**
+     * @return the number of cells that were not fired at yet
+     */
+    public int getUnknownCells() {
+        return unknownCells;
+    }
+
+    @Override
+    public void onGameStart(String sessionId, boolean isYourTurn, Vec2 boardSize, int[] shipSizes, int maxAllowedHits) {
+        start(sessionId, boardSize.x, boardSize.y, shipSizes);
+        isMyTurn = isYourTurn;
+    }
+
+    @Override
+    public void onTurnChange(String sessionId, boolean isYourTurn) {
+        isMyTurn = isYourTurn;
+    }
+
+    @Override
+    public void onSendTorpedoAck(String sessionId, Vec2 torpedoPos, boolean isHit) {
+        record(torpedoPos.x, torpedoPos.y, isHit);
+    }
+
+    @Override
+    public void onGameEnd(long gameTimeInNs, boolean isWin) {
+        isMyTurn = false;
+    }
+
+    @Override
+    public void onEnemyDisconnected(String sessionId) {
+        isMyTurn = false;
+    }
+}
@@ -0,0 +1,265 @@
+package com.csabapro.core.game;
+
+import java.util.Arrays;
+
+/**
+ * One player's board, backed by bitsets.
+ * <p>
+ * Cells are stored in <code>long[]</code> bitsets. The occupied cells are kept twice: row by row,
+ * where a horizontal ship is a contiguous run of bits, and column by column, where a vertical
+ * ship is. Checking a ship for overlap is therefore a mask AND over at most a couple of words,
+ * whatever the orientation. Every cell also remembers which ship is on it, so a torpedo is
+ * resolved to a miss, hit or sunk ship in constant time.
+ * <p>
+ * A board is not thread-safe, it is meant to be owned by a single session.
+ */
+public class Board {
+    private final int width;
+    private final int height;
+    private final int maxAllowedHits;
+
+    /** Occupied cells, bit index <code>y * width + x</code> */
+    private final long[] occupied;
+    /** Occupied cells, bit index <code>x * height + y</code> */
+    private final long[] occupiedByColumn;
+    /** Cells a torpedo was fired at, bit index <code>y * width + x</code> */
+    private final long[] fired;
+    /** Index of the ship + 1 on every cell, 0 if the cell is empty */
+    private final short[] shipAt;
+
+    private Ship[] ships = new Ship[8];
+    /** Cells of each ship that were not hit yet */
+    private int[] intactCells = new int[8];
+    private int shipCount = 0;
+    private int hits = 0;
+
+    /**
+     * @param boardSize exclusive upper bounds of the positions on the board
+     * @param maxAllowedHits the number of hits after which the owner of the board lost
+     */
+    public Board(Vec2 boardSize, int maxAllowedHits) {
+        this(boardSize.x, boardSize.y, maxAllowedHits);
+    }
+
+    public Board(int width, int height, int maxAllowedHits) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Board size must be positive, got: " + width + "," + height);
+        this.width = width;
+        this.height = height;
+        this.maxAllowedHits = maxAllowedHits;
+        int words = (width * height + 63) >>> 6;
+        this.occupied = new long[words];
+        this.occupiedByColumn = new long[words];
+        this.fired = new long[words];
+        this.shipAt = new short[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMaxAllowedHits() {
+        return maxAllowedHits;
+    }
+
+    public int getShipCount() {
+        return shipCount;
+    }
+
+    /**
+     * @return the i-th placed ship, in the order they were placed
+     */
+    public Ship getShip(int i) {
+        if (i < 0 || i >= shipCount)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + shipCount);
+        return ships[i];
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many more hits are needed until the owner of the board loses
+     */
+    public int getRemainingHits() {
+        return Math.max(0, maxAllowedHits - hits);
+    }
+
+    /**
+     * @return true once the board took <code>maxAllowedHits</code> hits
+     */
+    public boolean isDefeated() {
+        return hits >= maxAllowedHits;
+    }
+
+    public boolean isInBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    public boolean isInBounds(Vec2 pos) {
+        return isInBounds(pos.x, pos.y);
+    }
+
+    /**
+     * A ship with a non positive size is never in bounds
+     */
+    public boolean isInBounds(Ship ship) {
+        Vec2 start = ship.getStartPos();
+        int size = ship.getSize();
+        if (size <= 0 || !isInBounds(start.x, start.y))
+            return false;
+        // subtract instead of adding, the size can be anything a client sent
+        return ship.getOrientation() == Orientation.Horizontal ? size <= width - start.x : size <= height - start.y;
+    }
+
+    /**
+     * @return true if the ship covers a cell that is already occupied, the ship has to be in bounds
+     */
+    public boolean isOverlapping(Ship ship) {
+        Vec2 start = ship.getStartPos();
+        if (ship.getOrientation() == Orientation.Horizontal)
+            return intersects(occupied, start.y * width + start.x, ship.getSize());
+        return intersects(occupiedByColumn, start.x * height + start.y, ship.getSize());
+    }
+
+    /**
+     * Checks whether the ship could be placed without placing it
+     */
+    public PlacementResult checkPlacement(Ship ship) {
+        if (!isInBounds(ship))
+            return PlacementResult.OutOfBounds;
+        if (isOverlapping(ship))
+            return PlacementResult.Overlap;
+        return PlacementResult.Placed;
+    }
+
+    /**
+     * Places the ship if it is in bounds and does not overlap any other ship.
+     * The board keeps a reference to the ship, it should not be moved afterwards.
+     */
+    public PlacementResult placeShip(Ship ship) {
+        PlacementResult result = checkPlacement(ship);
+        if (result != PlacementResult.Placed)
+            return result;
+
+        if (shipCount == ships.length) {
+            ships = Arrays.copyOf(ships, shipCount * 2);
+            intactCells = Arrays.copyOf(intactCells, shipCount * 2);
+        }
+        ships[shipCount] = ship;
+        intactCells[shipCount] = ship.getSize();
+        shipCount++;
+
+        Vec2 start = ship.getStartPos();
+        int size = ship.getSize();
+        if (ship.getOrientation() == Orientation.Horizontal) {
+            int from = start.y * width + start.x;
+            setRange(occupied, from, size);
+            for (int i = 0; i < size; i++) {
+                setBit(occupiedByColumn, (start.x + i) * height + start.y);
+                shipAt[from + i] = (short) shipCount;
+            }
+        } else {
+            setRange(occupiedByColumn, start.x * height + start.y, size);
+            for (int i = 0; i < size; i++) {
+                int cell = (start.y + i) * width + start.x;
+                setBit(occupied, cell);
+                shipAt[cell] = (short) shipCount;
+            }
+        }
+        return PlacementResult.Placed;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return isInBounds(x, y) && getBit(occupied, y * width + x);
+    }
+
+    public boolean isFiredAt(int x, int y) {
+        return isInBounds(x, y) && getBit(fired, y * width + x);
+    }
+
+    public boolean isFiredAt(Vec2 pos) {
+        return isFiredAt(pos.x, pos.y);
+    }
+
+    /**
+     * @return the ship on the cell or null if it is empty or out of bounds
+     */
+    public Ship getShipAt(int x, int y) {
+        if (!isInBounds(x, y))
+            return null;
+        int ship = shipAt[y * width + x];
+        return ship == 0 ? null : ships[ship - 1];
+    }
+
+    public TorpedoResult fireTorpedo(Vec2 pos) {
+        return fireTorpedo(pos.x, pos.y);
+    }
+
+    public TorpedoResult fireTorpedo(int x, int y) {
+        if (!isInBounds(x, y))
+            return TorpedoResult.OutOfBounds;
+        int cell = y * width + x;
+        if (getBit(fired, cell))
+            return TorpedoResult.AlreadyFired;
+        setBit(fired, cell);
+
+        int ship = shipAt[cell];
+        if (ship == 0)
+            return TorpedoResult.Miss;
+        hits++;
+        return --intactCells[ship - 1] == 0 ? TorpedoResult.Sunk : TorpedoResult.Hit;
+    }
+
+    static boolean getBit(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    static void setBit(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    /**
+     * @return the mask of bits from <code>from</code> (inclusive) to <code>to</code> (exclusive) within one word
+     */
+    private static long wordMask(int from, int to) {
+        return (-1L << from) & (-1L >>> (64 - to));
+    }
+
+    /**
+     * @return true if any of the <code>length</code> bits starting at <code>from</code> is set
+     */
+    static boolean intersects(long[] bits, int from, int length) {
+        int end = from + length;
+        int word = from >>> 6;
+        int lastWord = (end - 1) >>> 6;
+        if (word == lastWord)
+            return (bits[word] & wordMask(from & 63, ((end - 1) & 63) + 1)) != 0;
+        if ((bits[word] & (-1L << from)) != 0)
+            return true;
+        for (word++; word < lastWord; word++) {
+            if (bits[word] != 0)
+                return true;
+        }
+        return (bits[lastWord] & (-1L >>> (63 - ((end - 1) & 63)))) != 0;
+    }
+
+    static void setRange(long[] bits, int from, int length) {
+        int end = from + length;
+        int word = from >>> 6;
+        int lastWord = (end - 1) >>> 6;
+        if (word == lastWord) {
+            bits[word] |= wordMask(from & 63, ((end - 1) & 63) + 1);
+            return;
+        }
+        bits[word] |= -1L << from;
+        for (word++; word < lastWord; word++)
+            bits[word] = -1L;
+        bits[lastWord] |= -1L >>> (63 - ((end - 1) & 63));
+    }
+}
@@ -0,0 +1,222 @@
+package com.csabapro.core.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates random legal fleets for a board size and a list of ship sizes.
+ * <p>
+ * The ships are placed largest first. For every size the start cells that are still free are tracked as
+ * the legal starts of {@link FleetValidator} minus a bitset of the starts blocked by the ships placed so
+ * far, so each ship is drawn uniformly from its remaining legal placements with a couple of popcounts
+ * instead of a retry loop. Only when the ships placed first leave no room for a later one, which takes a
+ * crowded board, is the fleet started over.
+ * <p>
+ * Fleets come out as <code>List&lt;Ship&gt;</code> or packed into an <code>int[]</code>, see {@link #nextPacked(int[])}.
+ * The same seed generates the same fleets. A generator is not thread-safe, {@link #split()} gives
+ * independent generators to other threads.
+ */
+public final class FleetGenerator {
+    /** Fleets started over before giving up on a board that is too crowded */
+    private static final int MAX_ATTEMPTS = 1000;
+
+    private final int width;
+    private final int height;
+    private final int[] shipSizes;
+    /** Indices of the ships, largest first */
+    private final int[] order;
+    private final int[] distinctSizes;
+    /** Index of the size of every ship in {@link #distinctSizes} */
+    private final int[] sizeIndex;
+    /** Legal starts of every distinct size, indexed by <code>size index * 2 + orientation</code> */
+    private final long[][] legal;
+    /** Starts blocked by the ships placed so far, same indices as {@link #legal} */
+    private final long[][] blocked;
+    private final boolean isPossible;
+    private final SplittableRandom random;
+
+    /**
+     * @param boardSize exclusive upper bounds of the positions on the board
+     * @param shipSizes the size of every ship of a fleet
+     * @param seed the same seed generates the same fleets
+     */
+    public FleetGenerator(Vec2 boardSize, List<Integer> shipSizes, long seed) {
+        this(boardSize, shipSizes, new SplittableRandom(seed));
+    }
+
+    private FleetGenerator(Vec2 boardSize, List<Integer> shipSizes, SplittableRandom random) {
+        FleetValidator validator = FleetValidator.of(boardSize, shipSizes);
+        this.width = boardSize.x;
+        this.height = boardSize.y;
+        this.random = random;
+        this.shipSizes = new int[shipSizes.size()];
+        for (int i = 0; i < this.shipSizes.length; i++) {
+            int size = shipSizes.get(i);
+            if (size <= 0)
+                throw new IllegalArgumentException("Ship sizes must be positive, got: " + size);
+            this.shipSizes[i] = size;
+        }
+
+        Integer[] byDescendingSize = new Integer[this.shipSizes.length];
+        for (int i = 0; i < byDescendingSize.length; i++)
+            byDescendingSize[i] = i;
+        Arrays.sort(byDescendingSize, (a, b) -> Integer.compare(this.shipSizes[b], this.shipSizes[a]));
+        this.order = new int[byDescendingSize.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = byDescendingSize[i];
+
+        int[] distinct = new int[this.shipSizes.length];
+        this.sizeIndex = new int[this.shipSizes.length];
+        int n = 0;
+        for (int i : order) {
+            if (n == 0 || distinct[n - 1] != this.shipSizes[i])
+                distinct[n++] = this.shipSizes[i];
+            sizeIndex[i] = n - 1;
+        }
+        this.distinctSizes = Arrays.copyOf(distinct, n);
+
+        int words = (width * height + 63) >>> 6;
+        boolean possible = true;
+        this.legal = new long[n * 2][];
+        this.blocked = new long[n * 2][];
+        for (int k = 0; k < n; k++) {
+            boolean fits = false;
+            for (Orientation orientation : Orientation.values()) {
+                long[] starts = validator.getLegalStarts(distinctSizes[k], orientation);
+                legal[k * 2 + orientation.ordinal()] = starts;
+                blocked[k * 2 + orientation.ordinal()] = new long[words];
+                for (long word : starts)
+                    fits |= word != 0;
+            }
+            possible &= fits;
+        }
+        this.isPossible = possible;
+    }
+
+    /**
+     * @return a new generator for the same fleets, seeded from this one, for use on another thread
+     */
+    public FleetGenerator split() {
+        List<Integer> sizes = new ArrayList<>();
+        for (int size : shipSizes)
+            sizes.add(size);
+        return new FleetGenerator(Vec2.of(width, height), sizes, random.split());
+    }
+
+    public int getShipCount() {
+        return shipSizes.length;
+    }
+
+    /**
+     * Generates a fleet packed into <code>fleet</code>, the ship at index i has the i-th ship size.
+     * A ship is packed as <code>(y * width + x) &lt;&lt; 1 | orientation</code>, see {@link #unpack}.
+     * @param fleet at least as long as the number of ships
+     * @return false if no legal fleet was found, the board is too small or too crowded
+     */
+    public boolean nextPacked(int[] fleet) {
+        if (!isPossible)
+            return false;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (tryPlace(fleet))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a new fleet, the ship at index i has the i-th ship size, or null if no legal fleet was found
+     */
+    public List<Ship> next() {
+        int[] fleet = new int[shipSizes.length];
+        if (!nextPacked(fleet))
+            return null;
+        List<Ship> ships = new ArrayList<>(fleet.length);
+        for (int i = 0; i < fleet.length; i++)
+            ships.add(unpack(fleet[i], shipSizes[i], width));
+        return ships;
+    }
+
+    /**
+     * @return the ship packed by {@link #nextPacked(int[])}
+     */
+    public static Ship unpack(int packed, int size, int width) {
+        int cell = packed >>> 1;
+        return new Ship(Vec2.of(cell % width, cell / width), Orientation.values()[packed & 1], size);
+    }
+
+    private boolean tryPlace(int[] fleet) {
+        for (long[] bits : blocked)
+            Arrays.fill(bits, 0);
+        for (int ship : order) {
+            int k = sizeIndex[ship];
+            long[] horizontal = legal[k * 2];
+            long[] vertical = legal[k * 2 + 1];
+            int freeHorizontal = countFree(horizontal, blocked[k * 2]);
+            int free = freeHorizontal + countFree(vertical, blocked[k * 2 + 1]);
+            if (free == 0)
+                return false;
+            int r = random.nextInt(free);
+            int packed = r < freeHorizontal
+                    ? selectFree(horizontal, blocked[k * 2], r) << 1
+                    : selectFree(vertical, blocked[k * 2 + 1], r - freeHorizontal) << 1 | 1;
+            fleet[ship] = packed;
+            block(packed, shipSizes[ship]);
+        }
+        return true;
+    }
+
+    private static int countFree(long[] legal, long[] blocked) {
+        int count = 0;
+        for (int w = 0; w < legal.length; w++)
+            count += Long.bitCount(legal[w] & ~blocked[w]);
+        return count;
+    }
+
+    /**
+     * @return the index of the r-th free start
+     */
+    private static int selectFree(long[] legal, long[] blocked, int r) {
+        for (int w = 0; w < legal.length; w++) {
+            long bits = legal[w] & ~blocked[w];
+            int count = Long.bitCount(bits);
+            if (r >= count) {
+                r -= count;
+                continue;
+            }
+            for (; r > 0; r--)
+                bits &= bits - 1;
+            return (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        assert false : "Unreachable"; // r is less than the number of free starts
+        return -1;
+    }
+
+    /**
+     * Blocks the starts of every size that would overlap the placed ship
+     */
+    private void block(int packed, int size) {
+        int cell = packed >>> 1;
+        int x = cell % width;
+        int y = cell / width;
+        boolean isHorizontal = (packed & 1) == 0;
+        int endX = isHorizontal ? x + size - 1 : x;
+        int endY = isHorizontal ? y : y + size - 1;
+        for (int k = 0; k < distinctSizes.length; k++) {
+            int s = distinctSizes[k];
+            long[] horizontal = blocked[k * 2];
+            long[] vertical = blocked[k * 2 + 1];
+            // a horizontal ship of size s overlaps a cell if it starts at most s - 1 cells left of it
+            for (int cy = y; cy <= endY; cy++) {
+                int fromX = Math.max(0, x - s + 1);
+                Board.setRange(horizontal, cy * width + fromX, endX - fromX + 1);
+            }
+            // a vertical one if it starts at most s - 1 cells above it
+            for (int cx = x; cx <= endX; cx++) {
+                for (int cy = Math.max(0, y - s + 1); cy <= endY; cy++)
+                    Board.setBit(vertical, cy * width + cx);
+            }
+        }
+    }
+}
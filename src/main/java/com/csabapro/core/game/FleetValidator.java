@@ -0,0 +1,240 @@
+package com.csabapro.core.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.csabapro.core.messaging.ErrorMessage;
+
+/**
+ * Validates whole fleets against a board size and a list of ship sizes.
+ * <p>
+ * For every ship size of the fleet and both orientations the legal start cells are precomputed as a bitset,
+ * so a bounds check is a single bit test. Overlaps are checked like on a {@link Board}, against the occupied
+ * cells kept row by row and column by column, so a whole fleet is validated in one pass over its ships.
+ * <p>
+ * A validator is immutable and can be shared between threads, validating allocates only the two bitsets
+ * of the occupied cells and the errors.
+ */
+public final class FleetValidator {
+    /** Fleets validated by one task of {@link #validateAll} */
+    private static final int BULK_BATCH = 256;
+    private static final int MAX_CACHED = 64;
+    private static final Map<List<Object>, FleetValidator> CACHE = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final int shipCount;
+    /** Number of ships of every size in the fleet */
+    private final int[] shipsPerSize;
+    /** Legal start cells, bit index <code>y * width + x</code>, indexed by size and orientation, null for other sizes */
+    private final long[][][] legalStarts;
+
+    /**
+     * @param boardSize exclusive upper bounds of the positions on the board
+     * @param shipSizes the size of every ship of a fleet
+     */
+    public FleetValidator(Vec2 boardSize, List<Integer> shipSizes) {
+        if (boardSize.x <= 0 || boardSize.y <= 0)
+            throw new IllegalArgumentException("Board size must be positive, got: " + boardSize);
+        this.width = boardSize.x;
+        this.height = boardSize.y;
+        this.shipCount = shipSizes.size();
+
+        int maxSize = 0;
+        for (int size : shipSizes)
+            maxSize = Math.max(maxSize, size);
+        this.shipsPerSize = new int[maxSize + 1];
+        for (int size : shipSizes) {
+            if (size > 0)
+                shipsPerSize[size]++;
+        }
+
+        int words = (width * height + 63) >>> 6;
+        this.legalStarts = new long[maxSize + 1][][];
+        for (int size = 1; size <= maxSize; size++) {
+            if (shipsPerSize[size] == 0)
+                continue;
+            long[] horizontal = new long[words];
+            if (size <= width) {
+                for (int y = 0; y < height; y++)
+                    Board.setRange(horizontal, y * width, width - size + 1);
+            }
+            long[] vertical = new long[words];
+            // the start rows of a vertical ship are contiguous in row major order
+            if (size <= height)
+                Board.setRange(vertical, 0, (height - size + 1) * width);
+            legalStarts[size] = new long[][] { horizontal, vertical };
+        }
+    }
+
+    /**
+     * @return a shared validator, the validators of the first {@value #MAX_CACHED} rule sets are cached for good,
+     * any other rule set gets a new validator on every call
+     */
+    public static FleetValidator of(Vec2 boardSize, List<Integer> shipSizes) {
+        List<Object> key = Arrays.asList(boardSize, new ArrayList<>(shipSizes));
+        FleetValidator validator = CACHE.get(key);
+        if (validator != null)
+            return validator;
+        validator = new FleetValidator(boardSize, shipSizes);
+        if (CACHE.size() < MAX_CACHED)
+            CACHE.putIfAbsent(key, validator);
+        return validator;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if a ship of the size can start at x,y with the orientation, the fleet must have a ship of the size
+     */
+    public boolean isLegal(int size, Orientation orientation, int x, int y) {
+        if (size <= 0 || size >= legalStarts.length || legalStarts[size] == null)
+            return false;
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return false;
+        return Board.getBit(legalStarts[size][orientation.ordinal()], y * width + x);
+    }
+
+    /**
+     * @return the legal start cells of a ship, bit index <code>y * width + x</code>, must not be modified.
+     * Null if the fleet has no ship of the size.
+     */
+    long[] getLegalStarts(int size, Orientation orientation) {
+        if (size <= 0 || size >= legalStarts.length || legalStarts[size] == null)
+            return null;
+        return legalStarts[size][orientation.ordinal()];
+    }
+
+    /**
+     * Places the ships one after the other, a rejected ship does not take up any cells.
+     * The errors are the same a {@link com.csabapro.core.session.GameSession} sends when the ships are placed in order.
+     * @return the errors of the rejected ships in the order of the ships, empty if every ship was accepted.
+     * The fleet can still be incomplete, see {@link #isValid(List)}
+     */
+    public List<ErrorMessage> validate(String sessionId, List<Ship> fleet) {
+        List<ErrorMessage> errors = new ArrayList<>();
+        check(sessionId, fleet, errors);
+        return errors.isEmpty() ? Collections.emptyList() : errors;
+    }
+
+    /**
+     * @return true if every ship is accepted and the fleet has exactly the ships of the rules
+     */
+    public boolean isValid(List<Ship> fleet) {
+        return fleet.size() == shipCount && check(null, fleet, null) == shipCount;
+    }
+
+    /**
+     * Validates many fleets in parallel on the common {@link ForkJoinPool}
+     * @return the errors of every fleet in the order of <code>fleets</code>, the errors have no session id
+     */
+    public List<List<ErrorMessage>> validateAll(List<? extends List<Ship>> fleets) {
+        return validateAll(fleets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Validates many fleets in parallel on <code>pool</code>
+     * @return the errors of every fleet in the order of <code>fleets</code>, the errors have no session id
+     */
+    public List<List<ErrorMessage>> validateAll(List<? extends List<Ship>> fleets, ForkJoinPool pool) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        List<ErrorMessage>[] results = new List[fleets.size()];
+        pool.invoke(new BulkTask(fleets, results, 0, results.length));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * @param errors collects the errors, if null the check stops at the first rejected ship
+     * @return the number of accepted ships, -1 if <code>errors</code> is null and a ship was rejected
+     */
+    private int check(String sessionId, List<Ship> fleet, List<ErrorMessage> errors) {
+        int words = (width * height + 63) >>> 6;
+        long[] occupied = new long[words];
+        long[] occupiedByColumn = new long[words];
+        int[] toPlace = shipsPerSize.clone();
+        int accepted = 0;
+        for (int i = 0; i < fleet.size(); i++) {
+            Ship ship = fleet.get(i);
+            ErrorMessage error = null;
+            int size = ship.getSize();
+            Vec2 start = ship.getStartPos();
+            if (size <= 0 || size >= toPlace.length || toPlace[size] == 0) {
+                if (errors == null)
+                    return -1;
+                error = ErrorMessage.IncorrectShipSize(sessionId, ship);
+            } else if (!isLegal(size, ship.getOrientation(), start.x, start.y)) {
+                if (errors == null)
+                    return -1;
+                Vec2 lastCell = Vec2.of(width - 1, height - 1);
+                error = ErrorMessage.ShipOutOfBounds(sessionId, ship, ship.getOutOfBoundsPositions(lastCell));
+            } else if (ship.getOrientation() == Orientation.Horizontal
+                    ? Board.intersects(occupied, start.y * width + start.x, size)
+                    : Board.intersects(occupiedByColumn, start.x * height + start.y, size)) {
+                if (errors == null)
+                    return -1;
+                List<Vec2> overlapping = new ArrayList<>();
+                for (int c = 0; c < size; c++) {
+                    if (Board.getBit(occupied, ship.getCellIndex(c, width)))
+                        overlapping.add(ship.getCell(c));
+                }
+                error = ErrorMessage.ShipOverlap(sessionId, ship, overlapping);
+            }
+            if (error != null) {
+                errors.add(error);
+                continue;
+            }
+
+            toPlace[size]--;
+            accepted++;
+            if (ship.getOrientation() == Orientation.Horizontal) {
+                Board.setRange(occupied, start.y * width + start.x, size);
+                for (int c = 0; c < size; c++)
+                    Board.setBit(occupiedByColumn, (start.x + c) * height + start.y);
+            } else {
+                Board.setRange(occupiedByColumn, start.x * height + start.y, size);
+                for (int c = 0; c < size; c++)
+                    Board.setBit(occupied, (start.y + c) * width + start.x);
+            }
+        }
+        return accepted;
+    }
+
+    private final class BulkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends List<Ship>> fleets;
+        private final List<ErrorMessage>[] results;
+        private final int from;
+        private final int to;
+
+        BulkTask(List<? extends List<Ship>> fleets, List<ErrorMessage>[] results, int from, int to) {
+            this.fleets = fleets;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BULK_BATCH) {
+                for (int i = from; i < to; i++)
+                    results[i] = validate(null, fleets.get(i));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BulkTask(fleets, results, from, middle), new BulkTask(fleets, results, middle, to));
+        }
+    }
+}
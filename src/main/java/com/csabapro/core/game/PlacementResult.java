@@ -0,0 +1,10 @@
+package com.csabapro.core.game;
+
+/**
+ * Outcome of placing a {@link Ship} on a {@link Board}
+ */
+public enum PlacementResult {
+    Placed,
+    OutOfBounds,
+    Overlap;
+}
@@ -1,35 +1,34 @@
 package com.csabapro.core.game;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.function.BiFunction;
+import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+/**
+ * A ship described by its start position, orientation and size.
+ * <p>
+ * The cells of the ship are never stored, bounds and overlap queries are answered with
+ * arithmetic on the start position and size. {@link #getPositions()} is a view that
+ * computes the cells on access and is only there for JSON compatibility.
+ */
 public class Ship {
     private Vec2 startPos;
     private Orientation orientation;
     private int size;
     private List<Vec2> positions;
 
-    private static List<Vec2> generatePositions(Vec2 startPos, Orientation orientation, int size) {
-        ArrayList<Vec2> positions = new ArrayList<>();
-        int start = orientation == Orientation.Horizontal ? startPos.x : startPos.y;
-        int end = start + size;
-        BiFunction<Vec2, Integer, Void> inc = orientation == Orientation.Horizontal ? (Vec2 in, Integer s) -> {in.x = s; return null;} : (Vec2 in, Integer s) -> {in.y = s; return null;};
-        for (Vec2 v = new Vec2(startPos); start < end; inc.apply(v, start), v = new Vec2(startPos), start++)
-            positions.add(v);
-        return positions;
-    }
-
     @JsonCreator
     public Ship(@JsonProperty("startPos") @JsonAlias({"pos", "location"}) Vec2 startPos, @JsonProperty("orientation") Orientation orientation, @JsonProperty("size") int size) {
         this.startPos = startPos;
         this.orientation = orientation;
         this.size = size;
-        this.positions = generatePositions(startPos, orientation, size);
     }
 
     public Vec2 getStartPos() {
@@ -38,7 +37,6 @@ public class Ship {
 
     public void setStartPos(Vec2 startPos) {
         this.startPos = startPos;
-        this.positions = generatePositions(startPos, orientation, size);
     }
 
     public Orientation getOrientation() {
@@ -47,7 +45,6 @@ public class Ship {
 
     public void setOrientation(Orientation orientation) {
         this.orientation = orientation;
-        this.positions = generatePositions(startPos, orientation, size);
     }
 
     public int getSize() {
@@ -56,16 +53,90 @@ public class Ship {
 
     public void setSize(int size) {
         this.size = size;
-        this.positions = generatePositions(startPos, orientation, size);
     }
 
+    /**
+     * @return x of the last cell of the ship
+     */
+    @JsonIgnore
+    public int getEndX() {
+        return orientation == Orientation.Horizontal ? startPos.x + size - 1 : startPos.x;
+    }
+
+    /**
+     * @return y of the last cell of the ship
+     */
+    @JsonIgnore
+    public int getEndY() {
+        return orientation == Orientation.Horizontal ? startPos.y : startPos.y + size - 1;
+    }
+
+    /**
+     * @return the i-th cell of the ship, counted from the start position
+     */
+    public Vec2 getCell(int i) {
+        return orientation == Orientation.Horizontal ? Vec2.of(startPos.x + i, startPos.y) : Vec2.of(startPos.x, startPos.y + i);
+    }
+
+    /**
+     * @return the i-th cell of the ship packed as <code>y * width + x</code>
+     */
+    public int getCellIndex(int i, int width) {
+        return orientation == Orientation.Horizontal ? startPos.y * width + startPos.x + i : (startPos.y + i) * width + startPos.x;
+    }
+
+    /**
+     * An unmodifiable view of the cells of the ship, it always reflects the current state of the ship.
+     */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     public List<Vec2> getPositions() {
-        return positions;
+        List<Vec2> p = positions;
+        if (p == null) {
+            p = new AbstractList<Vec2>() {
+                @Override
+                public Vec2 get(int i) {
+                    if (i < 0 || i >= size)
+                        throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+                    return getCell(i);
+                }
+
+                @Override
+                public int size() {
+                    return Math.max(0, size);
+                }
+            };
+            positions = p;
+        }
+        return p;
+    }
+
+    public boolean contains(int x, int y) {
+        if (orientation == Orientation.Horizontal)
+            return y == startPos.y && x >= startPos.x && x < startPos.x + size;
+        return x == startPos.x && y >= startPos.y && y < startPos.y + size;
+    }
+
+    public boolean contains(Vec2 pos) {
+        return contains(pos.x, pos.y);
+    }
+
+    /**
+     * @return true if the two ships share at least one cell
+     */
+    public boolean overlaps(Ship other) {
+        if (size <= 0 || other.size <= 0)
+            return false;
+        return startPos.x <= other.getEndX() && other.startPos.x <= getEndX()
+                && startPos.y <= other.getEndY() && other.startPos.y <= getEndY();
     }
 
     public List<Vec2> getOutOfBoundsPositions(Vec2 upperBounds) {
+        if (startPos.x >= 0 && startPos.y >= 0 && getEndX() <= upperBounds.x && getEndY() <= upperBounds.y)
+            return Collections.emptyList();
+
         List<Vec2> outOfBoundsPositions = new ArrayList<>();
-        for (Vec2 pos : positions) {
+        for (int i = 0; i < size; i++) {
+            Vec2 pos = getCell(i);
             if (pos.x > upperBounds.x || pos.y > upperBounds.y || pos.x < 0 || pos.y < 0)
                 outOfBoundsPositions.add(pos);
         }
@@ -77,16 +148,39 @@ public class Ship {
      * @return a list of overlapping positions
      */
     public List<Vec2> getOverlappingPositions(List<Vec2> otherShipPositions) {
-        List<Vec2> overlapping = new ArrayList<>(otherShipPositions); // make a copy because retainAll modifies the array in place
-        overlapping.retainAll(positions);
-        return overlapping;
+        List<Vec2> overlapping = null;
+        for (Vec2 pos : otherShipPositions) {
+            if (!contains(pos))
+                continue;
+            if (overlapping == null)
+                overlapping = new ArrayList<>();
+            overlapping.add(pos);
+        }
+        return overlapping == null ? Collections.emptyList() : overlapping;
+    }
+
+    /**
+     * Looks up every cell of the ship in the set, which is O(size) instead of a scan over all positions.
+     * @param otherShipPositions the positions of other ships
+     * @return a list of overlapping positions
+     */
+    public List<Vec2> getOverlappingPositions(Set<Vec2> otherShipPositions) {
+        List<Vec2> overlapping = null;
+        for (int i = 0; i < size; i++) {
+            Vec2 pos = getCell(i);
+            if (!otherShipPositions.contains(pos))
+                continue;
+            if (overlapping == null)
+                overlapping = new ArrayList<>();
+            overlapping.add(pos);
+        }
+        return overlapping == null ? Collections.emptyList() : overlapping;
     }
 
     /**
-     * Rotates the ship to the other other orientation and recalculates the positions
+     * Rotates the ship to the other other orientation
      */
     public void rotate() {
         orientation = orientation == Orientation.Horizontal ? Orientation.Vertical : Orientation.Horizontal; 
-        positions = generatePositions(startPos, orientation, size);
     }
 }
@@ -0,0 +1,18 @@
+package com.csabapro.core.game;
+
+/**
+ * Outcome of a torpedo fired at a {@link Board}
+ */
+public enum TorpedoResult {
+    Miss,
+    Hit,
+    /** The torpedo hit the last intact cell of a ship */
+    Sunk,
+    OutOfBounds,
+    /** A torpedo was already fired at this position, the board did not change */
+    AlreadyFired;
+
+    public boolean isHit() {
+        return this == Hit || this == Sunk;
+    }
+}
@@ -1,13 +1,42 @@
 package com.csabapro.core.game;
 
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.List;
+import java.util.Collection;
+import java.util.HashMap;
 
-public class Vec2 {
-    public int x;
-    public int y;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.result.Result;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
-    public Vec2(int x, int y) {
+/**
+ * An immutable 2D integer vector, usable as a key in hash based collections.
+ * <p>
+ * {@link #of(int, int)} returns shared instances for the coordinates of small boards and
+ * {@link #toLong()} packs the vector into a primitive for primitive keyed collections.
+ */
+public final class Vec2 {
+    /** Coordinates from 0 up to this (exclusive) are interned by {@link #of(int, int)} */
+    public static final int CACHE_SIZE = 64;
+    private static final Vec2[] cache = new Vec2[CACHE_SIZE * CACHE_SIZE];
+
+    static {
+        for (int y = 0; y < CACHE_SIZE; y++) {
+            for (int x = 0; x < CACHE_SIZE; x++)
+                cache[y * CACHE_SIZE + x] = new Vec2(x, y);
+        }
+    }
+
+    private static final long INVALID = Long.MIN_VALUE;
+    private static final String INCORRECT_ELEMENT_COUNT = "Could not parse Vec2. Incorrect number of elements";
+    private static final String NOT_INTEGER = "Could not parse Vec2. Elements are not integer: ";
+
+    public final int x;
+    public final int y;
+
+    @JsonCreator
+    public Vec2(@JsonProperty("x") int x, @JsonProperty("y") int y) {
         this.x = x;
         this.y = y;
     }
@@ -17,36 +46,169 @@ public class Vec2 {
         this.y = c.y;
     }
 
-    public Vec2() {}
+    public Vec2() {
+        this(0, 0);
+    }
+
+    /**
+     * @return a shared instance if both coordinates are in [0, {@link #CACHE_SIZE}), otherwise a new one
+     */
+    public static Vec2 of(int x, int y) {
+        if ((x | y) >= 0 && x < CACHE_SIZE && y < CACHE_SIZE)
+            return cache[y * CACHE_SIZE + x];
+        return new Vec2(x, y);
+    }
+
+    /**
+     * Packs the coordinates into a long, x in the high and y in the low 32 bits
+     */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    public long toLong() {
+        return pack(x, y);
+    }
+
+    /**
+     * @param packed a value returned by {@link #toLong()} or {@link #pack(int, int)}
+     */
+    public static Vec2 fromLong(long packed) {
+        return of((int) (packed >> 32), (int) packed);
+    }
 
     public static Vec2 fromString(String s) throws ParseException {
-        String[] vec2Split = s.split(",");
-        if (vec2Split.length != 2) {
-            throw new ParseException("Could not parse Vec2. Incorrect number of elements", 0);
+        Result<Vec2, ErrorMessage> r = parse(s);
+        if (r.isErr())
+            throw new ParseException(r.unwrapErr().getVars().get("deserializerMessage").toString(), 0);
+        return r.unwrap();
+    }
+
+    /**
+     * Parses <code>"x,y"</code> in a single pass, without splitting, boxing or throwing on bad input.
+     */
+    public static Result<Vec2, ErrorMessage> parse(CharSequence s) {
+        return parse(s, 0, s.length());
+    }
+
+    /**
+     * Parses <code>"x,y"</code> from the chars between <code>start</code> (inclusive) and <code>end</code> (exclusive).
+     */
+    public static Result<Vec2, ErrorMessage> parse(CharSequence s, int start, int end) {
+        int comma = -1;
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) != ',')
+                continue;
+            if (comma != -1)
+                return Result.Err(malformed(INCORRECT_ELEMENT_COUNT, s.subSequence(start, end).toString()));
+            comma = i;
         }
+        if (comma == -1)
+            return Result.Err(malformed(INCORRECT_ELEMENT_COUNT, s.subSequence(start, end).toString()));
 
-        int x = 0;
-        int y = 0;
-        try {
-            x = Integer.parseInt(vec2Split[0]);
-            y = Integer.parseInt(vec2Split[1]);
-        } catch (NumberFormatException e) {
-            throw new ParseException("Could not parse Vec2. Elements are not integer: "+vec2Split[0]+" "+vec2Split[1], 0);
+        long x = parseInt(s, start, comma);
+        long y = parseInt(s, comma + 1, end);
+        if (x == INVALID || y == INVALID)
+            return Result.Err(malformed(NOT_INTEGER + s.subSequence(start, comma) + " " + s.subSequence(comma + 1, end),
+                    s.subSequence(start, end).toString()));
+        return Result.Ok(of((int) x, (int) y));
+    }
+
+    /**
+     * Parses <code>"x,y"</code> from <code>length</code> ASCII bytes starting at <code>offset</code>.
+     */
+    public static Result<Vec2, ErrorMessage> parse(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int comma = -1;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] != ',')
+                continue;
+            if (comma != -1)
+                return Result.Err(malformed(INCORRECT_ELEMENT_COUNT, new String(bytes, offset, length, StandardCharsets.UTF_8)));
+            comma = i;
         }
+        if (comma == -1)
+            return Result.Err(malformed(INCORRECT_ELEMENT_COUNT, new String(bytes, offset, length, StandardCharsets.UTF_8)));
 
-        return new Vec2(x, y);
+        long x = parseInt(bytes, offset, comma);
+        long y = parseInt(bytes, comma + 1, end);
+        if (x == INVALID || y == INVALID)
+            return Result.Err(malformed(NOT_INTEGER + new String(bytes, offset, comma - offset, StandardCharsets.UTF_8) + " "
+                    + new String(bytes, comma + 1, end - comma - 1, StandardCharsets.UTF_8),
+                    new String(bytes, offset, length, StandardCharsets.UTF_8)));
+        return Result.Ok(of((int) x, (int) y));
+    }
+
+    /**
+     * Same rules as {@link Integer#parseInt(String)}: an optional sign followed by at least one digit.
+     * @return the value of the chars or {@link #INVALID}
+     */
+    private static long parseInt(CharSequence s, int start, int end) {
+        if (start >= end)
+            return INVALID;
+        boolean negative = false;
+        char first = s.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++start == end)
+                return INVALID;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                return INVALID;
+            value = value * 10 + digit;
+            if (value > -(long) Integer.MIN_VALUE)
+                return INVALID;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? INVALID : value;
+    }
+
+    private static long parseInt(byte[] bytes, int start, int end) {
+        if (start >= end)
+            return INVALID;
+        boolean negative = false;
+        byte first = bytes[start];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++start == end)
+                return INVALID;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                return INVALID;
+            value = value * 10 + digit;
+            if (value > -(long) Integer.MIN_VALUE)
+                return INVALID;
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? INVALID : value;
+    }
+
+    private static ErrorMessage malformed(String reason, String input) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("type", Vec2.class.getSimpleName());
+        map.put("deserializerMessage", reason);
+        map.put("input", input);
+        return ErrorMessage.MalformedMessage(Vec2.class.getSimpleName(), reason, map);
     }
 
     /**
-     * Is this vector < upperBounds and this vector > 0,0
+     * Is this vector < upperBounds and this vector >= 0,0
      * @param upperBounds exclusive upper bounds
-     * @return
      */
     public boolean isInBounds(Vec2 upperBounds) {
-        return x < upperBounds.x || y < upperBounds.y || x > 0 || y > 0;
+        return x >= 0 && y >= 0 && x < upperBounds.x && y < upperBounds.y;
     }
 
-    public boolean isOverlapping(List<Vec2> otherPositions) {
+    /**
+     * @param otherPositions prefer a Set, a List is scanned linearly
+     */
+    public boolean isOverlapping(Collection<Vec2> otherPositions) {
         return otherPositions.contains(this);
     }
 
@@ -63,4 +225,9 @@ public class Vec2 {
         Vec2 casted = (Vec2) other;
         return this.x == casted.x && this.y == casted.y;
     }
+
+    @Override
+    public int hashCode() {
+        return 31 * x + y;
+    }
 }
@@ -0,0 +1,471 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.result.Result;
+
+/**
+ * Compact binary framing of {@link ClientMessage}s and {@link ServerMessage}s, used once a session
+ * negotiated {@link WireFormat#Binary}.
+ * <p>
+ * Every frame starts with a one byte tag: {@link #TAG_MARKER} | the <code>getValue()</code> of the message type,
+ * or {@link #NO_TYPE_TAG} for a {@link ServerMessage} without a type, e.g. one that only carries an error.
+ * Integers are written as varints, coordinates and other signed values are zigzag encoded first.
+ * Strings are the varint length of their UTF-8 bytes followed by the bytes.
+ * <p>
+ * A {@link ClientMessage} only carries the fields its type uses, in this order:
+ * <ul>
+ *  <li>CreateSession: options</li>
+ *  <li>FindSession: nothing</li>
+ *  <li>JoinSession: sessionId, options</li>
+ *  <li>SendTorpedo: sessionId, torpedoPos.x, torpedoPos.y</li>
+ *  <li>PlaceShip: sessionId, startPos.x, startPos.y, zigzag(size) &lt;&lt; 1 | orientation ordinal</li>
+ * </ul>
+ * where options is a byte: bit 0 is isPrivateSession and bits 1-2 are the wireFormat ordinal + 1, or 0 if it is null.
+ * <p>
+ * A {@link ServerMessage} is followed by a varint bitmask of the fields that are set, see the <code>SM_</code> constants.
+ * The booleans are stored in the bitmask itself, the rest of the fields follow the mask in declaration order.
+ * An errorMessage is embedded as its length prefixed JSON.
+ * <p>
+ * Frames are self delimiting, so several of them can be read back to back from one buffer.
+ */
+public final class BinaryCodec {
+    /** High bit of every tag, JSON text only starts with it in a byte order mark. See {@link WireFormat#detect(byte)} */
+    public static final int TAG_MARKER = 0x80;
+    /** Tag of a {@link ServerMessage} without a <code>messageType</code>, no type has a value that high */
+    public static final int NO_TYPE_TAG = 0xff;
+
+    private static final int SM_SESSION_ID = 1;
+    private static final int SM_ERROR_MESSAGE = 1 << 1;
+    private static final int SM_IS_YOUR_TURN = 1 << 2;
+    private static final int SM_IS_YOUR_TURN_VALUE = 1 << 3;
+    private static final int SM_GAME_TIME_IN_NS = 1 << 4;
+    private static final int SM_IS_WIN = 1 << 5;
+    private static final int SM_IS_WIN_VALUE = 1 << 6;
+    private static final int SM_TORPEDO_POS = 1 << 7;
+    private static final int SM_IS_HIT = 1 << 8;
+    private static final int SM_IS_HIT_VALUE = 1 << 9;
+    private static final int SM_BOARD_SIZE = 1 << 10;
+    private static final int SM_SHIP_SIZES = 1 << 11;
+    private static final int SM_MAX_ALLOWED_HITS = 1 << 12;
+
+    private static final int INITIAL_FRAME_CAPACITY = 128;
+
+    /**
+     * Thrown on a frame that can not be decoded.
+     * It does not capture a stack trace, so malformed input is cheap to reject.
+     */
+    private static final class FrameException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        FrameException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private BinaryCodec() {}
+
+    /**
+     * Writes the frame of <code>cm</code> into <code>dst</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>dst</code> does not have enough room, its position is left unchanged
+     * @throws IllegalArgumentException if <code>cm</code> lacks its type or a field its type needs, nothing is written
+     */
+    public static int encode(ClientMessage cm, ByteBuffer dst) {
+        checkFields(cm);
+        int start = dst.position();
+        try {
+            dst.put((byte) (TAG_MARKER | cm.type.getValue()));
+            switch (cm.type) {
+                case CreateSession:
+                    dst.put(options(cm));
+                    break;
+                case FindSession:
+                    break;
+                case JoinSession:
+                    writeString(dst, cm.sessionId);
+                    dst.put(options(cm));
+                    break;
+                case SendTorpedo:
+                    writeString(dst, cm.sessionId);
+                    writeVec2(dst, cm.torpedoPos);
+                    break;
+                case PlaceShip:
+                    writeString(dst, cm.sessionId);
+                    writeVec2(dst, cm.ship.getStartPos());
+                    writeVarInt(dst, zigzag(cm.ship.getSize()) << 1 | cm.ship.getOrientation().ordinal());
+                    break;
+                default:
+                    assert false : "Unreachable"; // we should never get here
+                    break;
+            }
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw e;
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Rejects a message the decoder could not have produced, before any of it is written
+     */
+    private static void checkFields(ClientMessage cm) {
+        if (cm.type == null)
+            throw new IllegalArgumentException("ClientMessage has no type");
+        boolean missing;
+        switch (cm.type) {
+            case CreateSession:
+            case FindSession:
+                missing = false;
+                break;
+            case JoinSession:
+                missing = cm.sessionId == null;
+                break;
+            case SendTorpedo:
+                missing = cm.sessionId == null || cm.torpedoPos == null;
+                break;
+            case PlaceShip:
+                missing = cm.sessionId == null || cm.ship == null;
+                break;
+            default:
+                assert false : "Unreachable"; // we should never get here
+                missing = false;
+                break;
+        }
+        if (missing)
+            throw new IllegalArgumentException(cm.type + " is missing a field its frame needs");
+    }
+
+    public static byte[] encode(ClientMessage cm) {
+        for (int capacity = INITIAL_FRAME_CAPACITY;; capacity *= 2) {
+            ByteBuffer dst = ByteBuffer.allocate(capacity);
+            try {
+                encode(cm, dst);
+                return toByteArray(dst);
+            } catch (BufferOverflowException e) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Decodes the frame starting at the position of <code>src</code>.
+     * On success the position is moved past the frame, otherwise it is left unchanged.
+     */
+    public static Result<ClientMessage, ErrorMessage> decodeClientMessage(ByteBuffer src) {
+        int start = src.position();
+        try {
+            return Result.Ok(readClientMessage(src));
+        } catch (FrameException e) {
+            src.position(start);
+            return Result.Err(MessageCodec.malformedMessage(ClientMessage.class.getSimpleName(), e.getMessage(), null));
+        }
+    }
+
+    public static Result<ClientMessage, ErrorMessage> decodeClientMessage(byte[] src, int offset, int length) {
+        return decodeClientMessage(ByteBuffer.wrap(src, offset, length));
+    }
+
+    /**
+     * Writes the frame of <code>sm</code> into <code>dst</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>dst</code> does not have enough room, its position is left unchanged
+     */
+    public static int encode(ServerMessage sm, ByteBuffer dst) {
+        int mask = 0;
+        if (sm.sessionId != null)
+            mask |= SM_SESSION_ID;
+        if (sm.errorMessage != null)
+            mask |= SM_ERROR_MESSAGE;
+        if (sm.isYourTurn != null)
+            mask |= SM_IS_YOUR_TURN | (sm.isYourTurn ? SM_IS_YOUR_TURN_VALUE : 0);
+        if (sm.gameTimeInNs != null)
+            mask |= SM_GAME_TIME_IN_NS;
+        if (sm.isWin != null)
+            mask |= SM_IS_WIN | (sm.isWin ? SM_IS_WIN_VALUE : 0);
+        if (sm.torpedoPos != null)
+            mask |= SM_TORPEDO_POS;
+        if (sm.isHit != null)
+            mask |= SM_IS_HIT | (sm.isHit ? SM_IS_HIT_VALUE : 0);
+        if (sm.boardSize != null)
+            mask |= SM_BOARD_SIZE;
+        if (sm.shipSizes != null)
+            mask |= SM_SHIP_SIZES;
+        if (sm.maxAllowedHits != null)
+            mask |= SM_MAX_ALLOWED_HITS;
+
+        int start = dst.position();
+        try {
+            dst.put((byte) (sm.messageType == null ? NO_TYPE_TAG : TAG_MARKER | sm.messageType.getValue()));
+            writeVarInt(dst, mask);
+            if (sm.sessionId != null)
+                writeString(dst, sm.sessionId);
+            if (sm.errorMessage != null) {
+                byte[] error = MessageCodec.ERROR_MESSAGE_WRITER.writeValueAsBytes(sm.errorMessage);
+                writeVarInt(dst, error.length);
+                dst.put(error);
+            }
+            if (sm.gameTimeInNs != null)
+                writeVarLong(dst, sm.gameTimeInNs);
+            if (sm.torpedoPos != null)
+                writeVec2(dst, sm.torpedoPos);
+            if (sm.boardSize != null)
+                writeVec2(dst, sm.boardSize);
+            if (sm.shipSizes != null) {
+                writeVarInt(dst, sm.shipSizes.size());
+                for (int i = 0; i < sm.shipSizes.size(); i++)
+                    writeVarInt(dst, zigzag(sm.shipSizes.get(i)));
+            }
+            if (sm.maxAllowedHits != null)
+                writeVarInt(dst, zigzag(sm.maxAllowedHits));
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw e;
+        } catch (IOException e) {
+            assert false : "Should never fail to serialize ErrorMessage object into variable";
+        }
+        return dst.position() - start;
+    }
+
+    public static byte[] encode(ServerMessage sm) {
+        for (int capacity = INITIAL_FRAME_CAPACITY;; capacity *= 2) {
+            ByteBuffer dst = ByteBuffer.allocate(capacity);
+            try {
+                encode(sm, dst);
+                return toByteArray(dst);
+            } catch (BufferOverflowException e) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Decodes the frame starting at the position of <code>src</code>.
+     * On success the position is moved past the frame, otherwise it is left unchanged.
+     */
+    public static Result<ServerMessage, ErrorMessage> decodeServerMessage(ByteBuffer src) {
+        int start = src.position();
+        try {
+            return Result.Ok(readServerMessage(src));
+        } catch (FrameException e) {
+            src.position(start);
+            return Result.Err(MessageCodec.malformedMessage(ServerMessage.class.getSimpleName(), e.getMessage(), null));
+        }
+    }
+
+    public static Result<ServerMessage, ErrorMessage> decodeServerMessage(byte[] src, int offset, int length) {
+        return decodeServerMessage(ByteBuffer.wrap(src, offset, length));
+    }
+
+    private static ClientMessage readClientMessage(ByteBuffer src) throws FrameException {
+        int tag = readByte(src) & 0xff;
+        ClientMessageType type = (tag & TAG_MARKER) != 0 ? ClientMessageType.fromValue(tag & ~TAG_MARKER) : null;
+        if (type == null)
+            throw new FrameException("Unknown ClientMessage tag: " + tag);
+
+        ClientMessage cm = new ClientMessage();
+        cm.type = type;
+        switch (type) {
+            case CreateSession:
+                readOptions(src, cm);
+                break;
+            case FindSession:
+                break;
+            case JoinSession:
+                cm.sessionId = readString(src);
+                readOptions(src, cm);
+                break;
+            case SendTorpedo:
+                cm.sessionId = readString(src);
+                cm.torpedoPos = readVec2(src);
+                break;
+            case PlaceShip:
+                cm.sessionId = readString(src);
+                Vec2 startPos = readVec2(src);
+                int sizeAndOrientation = readVarInt(src);
+                Orientation orientation = Orientation.values()[sizeAndOrientation & 1];
+                cm.ship = new Ship(startPos, orientation, unzigzag(sizeAndOrientation >>> 1));
+                break;
+            default:
+                assert false : "Unreachable"; // we should never get here
+                break;
+        }
+        return cm;
+    }
+
+    private static ServerMessage readServerMessage(ByteBuffer src) throws FrameException {
+        int tag = readByte(src) & 0xff;
+        ServerMessageType type = (tag & TAG_MARKER) != 0 ? ServerMessageType.fromValue(tag & ~TAG_MARKER) : null;
+        if (type == null && tag != NO_TYPE_TAG)
+            throw new FrameException("Unknown ServerMessage tag: " + tag);
+
+        ServerMessage sm = new ServerMessage();
+        sm.messageType = type;
+        int mask = readVarInt(src);
+        if ((mask & SM_SESSION_ID) != 0)
+            sm.sessionId = readString(src);
+        if ((mask & SM_ERROR_MESSAGE) != 0) {
+            int length = readLength(src);
+            byte[] error = new byte[length];
+            src.get(error);
+            try {
+                sm.errorMessage = MessageCodec.ERROR_MESSAGE_READER.readValue(error);
+            } catch (IOException e) {
+                throw new FrameException("Could not read errorMessage: " + e.getLocalizedMessage());
+            }
+        }
+        if ((mask & SM_IS_YOUR_TURN) != 0)
+            sm.isYourTurn = (mask & SM_IS_YOUR_TURN_VALUE) != 0;
+        if ((mask & SM_GAME_TIME_IN_NS) != 0)
+            sm.gameTimeInNs = readVarLong(src);
+        if ((mask & SM_IS_WIN) != 0)
+            sm.isWin = (mask & SM_IS_WIN_VALUE) != 0;
+        if ((mask & SM_TORPEDO_POS) != 0)
+            sm.torpedoPos = readVec2(src);
+        if ((mask & SM_IS_HIT) != 0)
+            sm.isHit = (mask & SM_IS_HIT_VALUE) != 0;
+        if ((mask & SM_BOARD_SIZE) != 0)
+            sm.boardSize = readVec2(src);
+        if ((mask & SM_SHIP_SIZES) != 0) {
+            int count = readLength(src);
+            List<Integer> shipSizes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                shipSizes.add(unzigzag(readVarInt(src)));
+            sm.shipSizes = shipSizes;
+        }
+        if ((mask & SM_MAX_ALLOWED_HITS) != 0)
+            sm.maxAllowedHits = unzigzag(readVarInt(src));
+        return sm;
+    }
+
+    private static byte options(ClientMessage cm) {
+        int options = cm.isPrivateSession != null && cm.isPrivateSession ? 1 : 0;
+        if (cm.wireFormat != null)
+            options |= (cm.wireFormat.ordinal() + 1) << 1;
+        return (byte) options;
+    }
+
+    private static void readOptions(ByteBuffer src, ClientMessage cm) throws FrameException {
+        int options = readByte(src);
+        cm.isPrivateSession = (options & 1) != 0;
+        int wireFormat = (options >> 1) & 0x3;
+        if (wireFormat > WireFormat.values().length)
+            throw new FrameException("Unknown wireFormat: " + (wireFormat - 1));
+        cm.wireFormat = wireFormat == 0 ? null : WireFormat.values()[wireFormat - 1];
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarInt(ByteBuffer dst, int value) {
+        while ((value & ~0x7f) != 0) {
+            dst.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    private static void writeVarLong(ByteBuffer dst, long value) {
+        while ((value & ~0x7fL) != 0) {
+            dst.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    private static void writeVec2(ByteBuffer dst, Vec2 v) {
+        writeVarInt(dst, zigzag(v.x));
+        writeVarInt(dst, zigzag(v.y));
+    }
+
+    private static void writeString(ByteBuffer dst, String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 0x80) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarInt(dst, bytes.length);
+                dst.put(bytes);
+                return;
+            }
+        }
+        // ascii only, which session ids usually are: the chars are the UTF-8 bytes
+        writeVarInt(dst, length);
+        for (int i = 0; i < length; i++)
+            dst.put((byte) s.charAt(i));
+    }
+
+    private static byte readByte(ByteBuffer src) throws FrameException {
+        if (!src.hasRemaining())
+            throw new FrameException("Unexpected end of frame");
+        return src.get();
+    }
+
+    private static int readVarInt(ByteBuffer src) throws FrameException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte(src);
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new FrameException("Varint is longer than 5 bytes");
+    }
+
+    private static long readVarLong(ByteBuffer src) throws FrameException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte(src);
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new FrameException("Varint is longer than 10 bytes");
+    }
+
+    private static int readLength(ByteBuffer src) throws FrameException {
+        int length = readVarInt(src);
+        if (length < 0 || length > src.remaining())
+            throw new FrameException("Length " + length + " is larger than the rest of the frame");
+        return length;
+    }
+
+    private static Vec2 readVec2(ByteBuffer src) throws FrameException {
+        int x = unzigzag(readVarInt(src));
+        int y = unzigzag(readVarInt(src));
+        return Vec2.of(x, y);
+    }
+
+    private static String readString(ByteBuffer src) throws FrameException {
+        int length = readLength(src);
+        String s;
+        if (src.hasArray()) {
+            s = new String(src.array(), src.arrayOffset() + src.position(), length, StandardCharsets.UTF_8);
+            src.position(src.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+    private static byte[] toByteArray(ByteBuffer written) {
+        byte[] bytes = new byte[written.position()];
+        written.flip();
+        written.get(bytes);
+        return bytes;
+    }
+}
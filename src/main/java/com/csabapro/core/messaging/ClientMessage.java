@@ -1,16 +1,18 @@
 package com.csabapro.core.messaging;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
+import com.csabapro.core.game.Orientation;
 import com.csabapro.core.game.Ship;
 import com.csabapro.core.game.Vec2;
 import com.csabapro.core.result.Result;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 @JsonInclude(value = Include.NON_NULL)
 public class ClientMessage {
@@ -25,6 +27,11 @@ public class ClientMessage {
     public String sessionId = null;
     /** Should the initiated session be a private session */
     public Boolean isPrivateSession = false;
+    /**
+     * Format the client wants to use for the rest of the session.
+     * Only read in CreateSession and JoinSession, null keeps the current format.
+     */
+    public WireFormat wireFormat = null;
 
     /**
      * Location of the torpedo to place.
@@ -37,10 +44,9 @@ public class ClientMessage {
      */
     public Ship ship = null;
 
-    private static String malformedError(ClientMessageType type, String missing) {
-        return "Malformed ClientMessage with type: " + type.toString() + " did not have `" + missing
-                + "`, but it is required.";
-    }
+    /** Kept aside by {@link #reset()}, the next message decoded into this one reuses them */
+    private Ship spareShip = null;
+    private String spareSessionId = null;
 
     public static ClientMessage CreateSession() {
         ClientMessage cm = new ClientMessage();
@@ -55,6 +61,12 @@ public class ClientMessage {
         return cm;
     }
 
+    public static ClientMessage CreateSession(boolean isPrivateSession, WireFormat wireFormat) {
+        ClientMessage cm = CreateSession(isPrivateSession);
+        cm.wireFormat = wireFormat;
+        return cm;
+    }
+
     public static ClientMessage FindSession() {
         ClientMessage cm =  new ClientMessage();
         cm.type = ClientMessageType.FindSession;
@@ -68,6 +80,12 @@ public class ClientMessage {
         return cm;
     }
 
+    public static ClientMessage JoinSession(String sessionId, WireFormat wireFormat) {
+        ClientMessage cm = JoinSession(sessionId);
+        cm.wireFormat = wireFormat;
+        return cm;
+    }
+
     public static ClientMessage SendTorpedo(String sessionId, Vec2 torpedoPos) {
         ClientMessage cm = new ClientMessage();
         cm.type = ClientMessageType.SendTorpedo;
@@ -84,86 +102,106 @@ public class ClientMessage {
         return cm;
     }
 
+    /**
+     * Clears every field to its default, so that another message can be decoded into this one with
+     * {@link ClientMessageDecoder#decodeInto(byte[], int, int, ClientMessage)}.
+     * The ship is filled again by the next decoded <code>PlaceShip</code>, so it must not be kept after the reset.
+     * @return this
+     */
+    public ClientMessage reset() {
+        if (ship != null)
+            spareShip = ship;
+        if (sessionId != null)
+            spareSessionId = sessionId;
+        type = null;
+        sessionId = null;
+        isPrivateSession = false;
+        wireFormat = null;
+        torpedoPos = null;
+        ship = null;
+        return this;
+    }
+
+    /**
+     * @return the ship kept by the last reset filled with the given fields, or a new one
+     */
+    Ship reuseShip(Vec2 startPos, Orientation orientation, int size) {
+        Ship s = spareShip;
+        if (s == null)
+            return new Ship(startPos, orientation, size);
+        spareShip = null;
+        s.setStartPos(startPos);
+        s.setOrientation(orientation);
+        s.setSize(size);
+        return s;
+    }
+
+    /**
+     * @return the session id of the message before the last reset, a connection usually repeats it
+     */
+    String getSpareSessionId() {
+        return spareSessionId;
+    }
+
     public static Result<ClientMessage, ErrorMessage> deserialize(String input) {
-        ClientMessage cm = null;
-        try {
-            cm = new ObjectMapper().readerFor(ClientMessage.class).readValue(input);
-        } catch (Exception e) {
-            HashMap<String, Object> map = new HashMap<>();
-            map.put("type", ClientMessage.class.getSimpleName());
-            map.put("deserializerMessage", e.getLocalizedMessage());
-            map.put("input", input);
-            ErrorMessage em = ErrorMessage.MalformedMessage(ClientMessage.class.getSimpleName(),
-                    e.getLocalizedMessage(), map);
-            return Result.Err(em);
-        }
+        return ClientMessageDecoder.decode(input);
+    }
 
-        List<String> missing = new ArrayList<String>();
-        switch (cm.type) {
-            case FindSession:
-                // if (cm.connectionId == null)
-                //     missing.add("connectionId");
-                break;
-
-            case CreateSession:
-                // if (cm.connectionId == null)
-                //     missing.add("connectionId");
-                if (cm.isPrivateSession == null)
-                    cm.isPrivateSession = false;
-                break;
-
-            case JoinSession:
-                // if (cm.connectionId == null)
-                //     missing.add("connectionId");
-                if (cm.sessionId == null)
-                    missing.add("sessionId");
-                break;
-
-            case SendTorpedo:
-                // if (cm.connectionId == null)
-                //     missing.add("connectionId");
-                if (cm.sessionId == null)
-                    missing.add("sessionId");
-                if (cm.torpedoPos == null)
-                    missing.add("torpedoPos");
-                break;
-
-            case PlaceShip:
-                // if (cm.connectionId == null)
-                //     missing.add("connectionId");
-                if (cm.sessionId == null)
-                    missing.add("sessionId");
-                if (cm.ship == null)
-                    missing.add("ship");
-                break;
-
-            default:
-                assert false : "Unreachable"; // we should never get here
-                break;
-        }
-        if (missing.size() > 0) {
-            HashMap<String, Object> map = new HashMap<>();
-            map.put("type", ClientMessage.class.getSimpleName());
-            String deserializerMessage = malformedError(cm.type, String.join(", ", missing));
-            map.put("deserializerMessage", deserializerMessage);
-            map.put("input", input);
-            ErrorMessage em = ErrorMessage.MalformedMessage(ClientMessage.class.getSimpleName(), deserializerMessage,
-                    map);
-            return Result.Err(em);
-        }
+    /**
+     * Deserializes UTF-8 encoded JSON without decoding it into a String first.
+     */
+    public static Result<ClientMessage, ErrorMessage> deserialize(byte[] input) {
+        return ClientMessageDecoder.decode(input, 0, input.length);
+    }
+
+    /**
+     * Deserializes <code>length</code> bytes of UTF-8 encoded JSON starting at <code>offset</code>.
+     */
+    public static Result<ClientMessage, ErrorMessage> deserialize(byte[] input, int offset, int length) {
+        return ClientMessageDecoder.decode(input, offset, length);
+    }
 
-        return Result.Ok(cm);
+    /**
+     * Deserializes the remaining UTF-8 encoded bytes of <code>input</code>.
+     * The position of <code>input</code> is only moved to its limit if a message could be read.
+     */
+    public static Result<ClientMessage, ErrorMessage> deserialize(ByteBuffer input) {
+        return ClientMessageDecoder.decode(input);
+    }
+
+    /**
+     * Deserializes a single message from the stream, the stream is not closed.
+     * Since the stream can not be read twice the error will not contain the <code>input</code> variable.
+     */
+    public static Result<ClientMessage, ErrorMessage> deserialize(InputStream input) {
+        return ClientMessageDecoder.decode(input);
     }
 
     public String serialize() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return MessageCodec.CLIENT_MESSAGE_WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             assert false : "Should never fail to serialize ClientMessage object into variable";
             return "";
         }
     }
 
+    /**
+     * Writes the UTF-8 encoded JSON into <code>output</code>, the stream is not closed.
+     */
+    public void serialize(OutputStream output) throws IOException {
+        MessageCodec.CLIENT_MESSAGE_WRITER.writeValue(output, this);
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON into <code>output</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>output</code> does not have enough room, its position is left unchanged
+     */
+    public int serialize(ByteBuffer output) throws IOException {
+        return MessageCodec.writeValue(MessageCodec.CLIENT_MESSAGE_WRITER, this, output);
+    }
+
     @Override
     public String toString() {
         return serialize();
@@ -0,0 +1,453 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.metrics.Metrics;
+import com.csabapro.core.metrics.MetricsSink;
+import com.csabapro.core.result.Result;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Streaming decoder for {@link ClientMessage}s.
+ * <p>
+ * Walks the JSON tokens with a {@link JsonParser} instead of going through databind. Present
+ * fields are recorded in a bitmask while parsing, so checking the required fields of a type
+ * is a single mask comparison instead of a second pass over the message.
+ */
+public final class ClientMessageDecoder {
+    private static final int TYPE = 1;
+    private static final int SESSION_ID = 1 << 1;
+    private static final int TORPEDO_POS = 1 << 2;
+    private static final int SHIP = 1 << 3;
+
+    /** Required fields indexed by {@link ClientMessageType#getValue()} */
+    private static final int[] REQUIRED = new int[ClientMessageType.values().length];
+
+    static {
+        REQUIRED[ClientMessageType.CreateSession.getValue()] = 0;
+        REQUIRED[ClientMessageType.FindSession.getValue()] = 0;
+        REQUIRED[ClientMessageType.JoinSession.getValue()] = SESSION_ID;
+        REQUIRED[ClientMessageType.SendTorpedo.getValue()] = SESSION_ID | TORPEDO_POS;
+        REQUIRED[ClientMessageType.PlaceShip.getValue()] = SESSION_ID | SHIP;
+    }
+
+    /** Hands the fields of a message of one type to a handler */
+    private interface Route {
+        void route(ClientMessage cm, ClientMessageHandler handler);
+    }
+
+    /** Routes indexed by {@link ClientMessageType#getValue()} */
+    private static final Route[] ROUTES = new Route[ClientMessageType.values().length];
+
+    static {
+        ROUTES[ClientMessageType.CreateSession.getValue()] = (cm, h) -> h.onCreateSession(Boolean.TRUE.equals(cm.isPrivateSession), cm.wireFormat);
+        ROUTES[ClientMessageType.FindSession.getValue()] = (cm, h) -> h.onFindSession();
+        ROUTES[ClientMessageType.JoinSession.getValue()] = (cm, h) -> h.onJoinSession(cm.sessionId, cm.wireFormat);
+        ROUTES[ClientMessageType.SendTorpedo.getValue()] = (cm, h) -> h.onSendTorpedo(cm.sessionId, cm.torpedoPos);
+        ROUTES[ClientMessageType.PlaceShip.getValue()] = (cm, h) -> h.onPlaceShip(cm.sessionId, cm.ship);
+    }
+
+    /**
+     * Thrown on input that is valid JSON but does not follow the schema of a {@link ClientMessage}.
+     * It does not capture a stack trace, so malformed input is cheap to reject.
+     */
+    private static final class SchemaException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SchemaException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private ClientMessageDecoder() {}
+
+    public static Result<ClientMessage, ErrorMessage> decode(String input) {
+        ClientMessage cm = new ClientMessage();
+        ErrorMessage error = decodeInto(input, cm);
+        return error == null ? Result.Ok(cm) : Result.Err(error);
+    }
+
+    public static Result<ClientMessage, ErrorMessage> decode(byte[] input, int offset, int length) {
+        ClientMessage cm = new ClientMessage();
+        ErrorMessage error = decodeInto(input, offset, length, cm);
+        return error == null ? Result.Ok(cm) : Result.Err(error);
+    }
+
+    /**
+     * Decodes the remaining bytes of <code>input</code>.
+     * The position of <code>input</code> is only moved to its limit if a message could be decoded.
+     */
+    public static Result<ClientMessage, ErrorMessage> decode(ByteBuffer input) {
+        ClientMessage cm = new ClientMessage();
+        ErrorMessage error = decodeInto(input, cm);
+        return error == null ? Result.Ok(cm) : Result.Err(error);
+    }
+
+    /**
+     * Decodes a single message from the stream, the stream is not closed.
+     * Since the stream can not be read twice the error will not contain the <code>input</code> variable.
+     */
+    public static Result<ClientMessage, ErrorMessage> decode(InputStream input) {
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        ClientMessage cm = new ClientMessage();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(input)) {
+            error = decodeInto(parser, cm);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        metrics.clientMessageDecoded(cm.type, error != null, start);
+        return error == null ? Result.Ok(cm) : Result.Err(malformedMessage(error, null));
+    }
+
+    /**
+     * Decodes <code>length</code> bytes starting at <code>offset</code> and calls the method of its type on the handler.
+     * @param scratch the message the fields are decoded into, it can be reused for the next call
+     * @return null if the handler was called, otherwise why the input is malformed
+     */
+    public static ErrorMessage decode(byte[] input, int offset, int length, ClientMessage scratch, ClientMessageHandler handler) {
+        ErrorMessage error = decodeInto(input, offset, length, scratch);
+        if (error == null)
+            dispatch(scratch, handler);
+        return error;
+    }
+
+    /**
+     * Decodes and calls the method of its type on the handler.
+     * @param scratch the message the fields are decoded into, it can be reused for the next call
+     * @return null if the handler was called, otherwise why the input is malformed
+     */
+    public static ErrorMessage decode(String input, ClientMessage scratch, ClientMessageHandler handler) {
+        ErrorMessage error = decodeInto(input, scratch);
+        if (error == null)
+            dispatch(scratch, handler);
+        return error;
+    }
+
+    /**
+     * Calls the method of the type of a valid message on the handler
+     */
+    public static void dispatch(ClientMessage cm, ClientMessageHandler handler) {
+        ROUTES[cm.type.getValue()].route(cm, handler);
+    }
+
+    /**
+     * Decodes into a message owned by the caller, which is {@link ClientMessage#reset() reset} first.
+     * Reusing one message per connection avoids allocating the message, its ship and, when the
+     * client repeats it, its session id.
+     * @return null if <code>into</code> holds a valid message, otherwise why the input is malformed
+     */
+    public static ErrorMessage decodeInto(String input, ClientMessage into) {
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        into.reset();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(input)) {
+            error = decodeInto(parser, into);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        metrics.clientMessageDecoded(into.type, error != null, start);
+        return error == null ? null : malformedMessage(error, input);
+    }
+
+    /**
+     * Decodes <code>length</code> bytes starting at <code>offset</code> into a message owned by the caller,
+     * see {@link #decodeInto(String, ClientMessage)}.
+     * @return null if <code>into</code> holds a valid message, otherwise why the input is malformed
+     */
+    public static ErrorMessage decodeInto(byte[] input, int offset, int length, ClientMessage into) {
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        into.reset();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(input, offset, length)) {
+            error = decodeInto(parser, into);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        metrics.clientMessageDecoded(into.type, error != null, start);
+        return error == null ? null : malformedMessage(error, new String(input, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the remaining bytes of <code>input</code> into a message owned by the caller,
+     * see {@link #decodeInto(String, ClientMessage)}.
+     * The position of <code>input</code> is only moved to its limit if a message could be decoded.
+     * @return null if <code>into</code> holds a valid message, otherwise why the input is malformed
+     */
+    public static ErrorMessage decodeInto(ByteBuffer input, ClientMessage into) {
+        if (input.hasArray()) {
+            ErrorMessage error = decodeInto(input.array(), input.arrayOffset() + input.position(), input.remaining(), into);
+            if (error == null)
+                input.position(input.limit());
+            return error;
+        }
+
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        into.reset();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(new ByteBufferBackedInputStream(input.duplicate()))) {
+            error = decodeInto(parser, into);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        metrics.clientMessageDecoded(into.type, error != null, start);
+        if (error != null)
+            return malformedMessage(error, MessageCodec.toString(input));
+        input.position(input.limit());
+        return null;
+    }
+
+    /**
+     * Decodes the next JSON object of the parser into <code>cm</code>.
+     * @return null if <code>cm</code> is a valid message, otherwise the reason why it is malformed
+     * @throws IOException if the input is not valid JSON
+     */
+    private static String decodeInto(JsonParser parser, ClientMessage cm) throws IOException {
+        int present;
+        try {
+            present = readMessage(parser, cm);
+        } catch (SchemaException e) {
+            return e.getMessage();
+        }
+
+        if ((present & TYPE) == 0)
+            return malformedError(null, "type");
+
+        int missing = REQUIRED[cm.type.getValue()] & ~present;
+        if (missing != 0)
+            return malformedError(cm.type, missingFields(missing));
+
+        if (cm.type == ClientMessageType.CreateSession && cm.isPrivateSession == null)
+            cm.isPrivateSession = false;
+        return null;
+    }
+
+    private static int readMessage(JsonParser p, ClientMessage cm) throws IOException, SchemaException {
+        if (p.nextToken() != JsonToken.START_OBJECT)
+            throw new SchemaException("Expected a JSON object");
+
+        int present = 0;
+        String field;
+        while ((field = p.nextFieldName()) != null) {
+            JsonToken t = p.nextToken();
+            switch (field) {
+                case "type":
+                    cm.type = readType(p, t);
+                    present |= TYPE;
+                    break;
+                case "sessionId":
+                    cm.sessionId = readString(p, t, field, cm.getSpareSessionId());
+                    if (cm.sessionId != null)
+                        present |= SESSION_ID;
+                    break;
+                case "isPrivateSession":
+                    cm.isPrivateSession = readBoolean(t, field);
+                    break;
+                case "wireFormat":
+                    cm.wireFormat = readWireFormat(p, t);
+                    break;
+                case "torpedoPos":
+                    cm.torpedoPos = readVec2(p, t, field);
+                    if (cm.torpedoPos != null)
+                        present |= TORPEDO_POS;
+                    break;
+                case "ship":
+                    cm.ship = readShip(p, t, cm);
+                    if (cm.ship != null)
+                        present |= SHIP;
+                    break;
+                default:
+                    throw new SchemaException("Unrecognized field `" + field + "` in ClientMessage");
+            }
+        }
+        if (p.currentToken() != JsonToken.END_OBJECT)
+            throw new SchemaException("Expected a field name in ClientMessage but got: " + p.currentToken());
+        return present;
+    }
+
+    private static ClientMessageType readType(JsonParser p, JsonToken t) throws IOException, SchemaException {
+        ClientMessageType type = null;
+        if (t == JsonToken.VALUE_NUMBER_INT) {
+            type = ClientMessageType.fromValue(p.getIntValue());
+        } else if (t == JsonToken.VALUE_STRING) {
+            String text = p.getText();
+            for (ClientMessageType candidate : ClientMessageType.values()) {
+                if (candidate.toString().equals(text) || Integer.toString(candidate.getValue()).equals(text))
+                    type = candidate;
+            }
+        }
+        if (type == null)
+            throw new SchemaException("`type`: " + p.getText() + " is not a ClientMessageType");
+        return type;
+    }
+
+    /**
+     * @param previous returned instead of a new String if the value has the same characters
+     */
+    private static String readString(JsonParser p, JsonToken t, String field, String previous) throws IOException, SchemaException {
+        if (t == JsonToken.VALUE_NULL)
+            return null;
+        if (!t.isScalarValue())
+            throw new SchemaException("`" + field + "` should be a string");
+        if (previous != null && t == JsonToken.VALUE_STRING && p.getTextLength() == previous.length()) {
+            char[] chars = p.getTextCharacters();
+            int offset = p.getTextOffset();
+            int i = 0;
+            while (i < previous.length() && chars[offset + i] == previous.charAt(i))
+                i++;
+            if (i == previous.length())
+                return previous;
+        }
+        return p.getText();
+    }
+
+    private static Boolean readBoolean(JsonToken t, String field) throws SchemaException {
+        if (t == JsonToken.VALUE_TRUE)
+            return true;
+        if (t == JsonToken.VALUE_FALSE)
+            return false;
+        if (t == JsonToken.VALUE_NULL)
+            return null;
+        throw new SchemaException("`" + field + "` should be a boolean");
+    }
+
+    private static int readInt(JsonParser p, JsonToken t, String field) throws IOException, SchemaException {
+        if (t != JsonToken.VALUE_NUMBER_INT)
+            throw new SchemaException("`" + field + "` should be an integer");
+        return p.getIntValue();
+    }
+
+    private static Vec2 readVec2(JsonParser p, JsonToken t, String field) throws IOException, SchemaException {
+        if (t == JsonToken.VALUE_NULL)
+            return null;
+        if (t != JsonToken.START_OBJECT)
+            throw new SchemaException("`" + field + "` should be an object with `x` and `y`");
+
+        int x = 0;
+        int y = 0;
+        String name;
+        while ((name = p.nextFieldName()) != null) {
+            JsonToken vt = p.nextToken();
+            switch (name) {
+                case "x":
+                    x = readInt(p, vt, "x");
+                    break;
+                case "y":
+                    y = readInt(p, vt, "y");
+                    break;
+                default:
+                    throw new SchemaException("Unrecognized field `" + name + "` in Vec2");
+            }
+        }
+        return Vec2.of(x, y);
+    }
+
+    private static Ship readShip(JsonParser p, JsonToken t, ClientMessage cm) throws IOException, SchemaException {
+        if (t == JsonToken.VALUE_NULL)
+            return null;
+        if (t != JsonToken.START_OBJECT)
+            throw new SchemaException("`ship` should be an object");
+
+        Vec2 startPos = null;
+        Orientation orientation = null;
+        int size = 0;
+        String name;
+        while ((name = p.nextFieldName()) != null) {
+            JsonToken vt = p.nextToken();
+            switch (name) {
+                case "startPos":
+                case "pos":
+                case "location":
+                    startPos = readVec2(p, vt, name);
+                    break;
+                case "orientation":
+                    orientation = readOrientation(p, vt);
+                    break;
+                case "size":
+                    size = readInt(p, vt, "size");
+                    break;
+                case "positions":
+                    // derived from the other fields
+                    p.skipChildren();
+                    break;
+                default:
+                    throw new SchemaException("Unrecognized field `" + name + "` in Ship");
+            }
+        }
+        if (startPos == null)
+            throw new SchemaException("Malformed Ship did not have `startPos`, but it is required.");
+        if (orientation == null)
+            throw new SchemaException("Malformed Ship did not have `orientation`, but it is required.");
+        return cm.reuseShip(startPos, orientation, size);
+    }
+
+    private static Orientation readOrientation(JsonParser p, JsonToken t) throws IOException, SchemaException {
+        if (t == JsonToken.VALUE_STRING) {
+            switch (p.getText()) {
+                case "Horizontal":
+                    return Orientation.Horizontal;
+                case "Vertical":
+                    return Orientation.Vertical;
+                default:
+                    break;
+            }
+        } else if (t == JsonToken.VALUE_NUMBER_INT) {
+            int ordinal = p.getIntValue();
+            if (ordinal >= 0 && ordinal < Orientation.values().length)
+                return Orientation.values()[ordinal];
+        } else if (t == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new SchemaException("`orientation`: " + p.getText() + " is not an Orientation");
+    }
+
+    private static WireFormat readWireFormat(JsonParser p, JsonToken t) throws IOException, SchemaException {
+        if (t == JsonToken.VALUE_NULL)
+            return null;
+        if (t == JsonToken.VALUE_STRING) {
+            switch (p.getText()) {
+                case "Json":
+                    return WireFormat.Json;
+                case "Binary":
+                    return WireFormat.Binary;
+                default:
+                    break;
+            }
+        }
+        throw new SchemaException("`wireFormat`: " + p.getText() + " is not a WireFormat");
+    }
+
+    private static String missingFields(int missing) {
+        List<String> names = new ArrayList<>();
+        if ((missing & SESSION_ID) != 0)
+            names.add("sessionId");
+        if ((missing & TORPEDO_POS) != 0)
+            names.add("torpedoPos");
+        if ((missing & SHIP) != 0)
+            names.add("ship");
+        return String.join(", ", names);
+    }
+
+    private static String malformedError(ClientMessageType type, String missing) {
+        return "Malformed ClientMessage" + (type == null ? "" : " with type: " + type.toString()) + " did not have `"
+                + missing + "`, but it is required.";
+    }
+
+    private static ErrorMessage malformedMessage(String deserializerMessage, String input) {
+        return MessageCodec.malformedMessage(ClientMessage.class.getSimpleName(), deserializerMessage, input);
+    }
+}
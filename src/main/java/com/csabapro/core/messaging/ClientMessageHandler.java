@@ -0,0 +1,33 @@
+package com.csabapro.core.messaging;
+
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+
+/**
+ * Receives decoded {@link ClientMessage}s by type, with just the fields of that type.
+ * <p>
+ * Messages are routed through a table indexed by {@link ClientMessageType#getValue()}, so a handler
+ * never has to switch on the type itself.
+ *
+ * @see ClientMessageDecoder#dispatch(ClientMessage, ClientMessageHandler)
+ */
+public interface ClientMessageHandler {
+    /**
+     * @param wireFormat null keeps the current format
+     */
+    void onCreateSession(boolean isPrivateSession, WireFormat wireFormat);
+
+    void onFindSession();
+
+    /**
+     * @param wireFormat null keeps the current format
+     */
+    void onJoinSession(String sessionId, WireFormat wireFormat);
+
+    void onSendTorpedo(String sessionId, Vec2 torpedoPos);
+
+    /**
+     * @param ship owned by the decoded message, copy it to keep it past the call
+     */
+    void onPlaceShip(String sessionId, Ship ship);
+}
@@ -55,8 +55,14 @@ public enum ClientMessageType {
     ;
 
     private static int ClientMessageTypeCount = 0;
+    private static final ClientMessageType[] byValue = new ClientMessageType[values().length];
     private int value;
 
+    static {
+        for (ClientMessageType type : values())
+            byValue[type.value] = type;
+    }
+
     private int inc() {
         return ClientMessageTypeCount++;
     }
@@ -70,14 +76,11 @@ public enum ClientMessageType {
         return value;
     }
 
-    @Override
-    public String toString() {
-        if (this == CreateSession) return "CreateSession";
-        if (this == FindSession) return "FindSession";
-        if (this == JoinSession) return "JoinSession";
-        if (this == PlaceShip) return "PlaceShip";
-        if (this == SendTorpedo) return "SendTorpedo";
-        assert false : "unreachable"; // We should never get here
-        return "";
+    /**
+     * @param value the value returned by {@link #getValue()}
+     * @return the type with the given value or null if there is no such type
+     */
+    public static ClientMessageType fromValue(int value) {
+        return value >= 0 && value < byValue.length ? byValue[value] : null;
     }
 }
\ No newline at end of file
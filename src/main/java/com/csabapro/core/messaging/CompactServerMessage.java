@@ -0,0 +1,547 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.result.Result;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * A {@link ServerMessage} backed by primitives instead of boxed nullable fields.
+ * <p>
+ * Which of the primitive fields are set is kept in a bitmask, and the ship sizes are an <code>int[]</code>,
+ * so filling and encoding a message does not box anything. The JSON is identical to the one of the
+ * equivalent {@link ServerMessage}, fields that are not set are left out, so either class can
+ * read what the other one wrote.
+ */
+@JsonSerialize(using = CompactServerMessageSerializer.class)
+@JsonDeserialize(using = CompactServerMessageDeserializer.class)
+public final class CompactServerMessage {
+    static final int IS_YOUR_TURN = 1;
+    static final int GAME_TIME_IN_NS = 1 << 1;
+    static final int IS_WIN = 1 << 2;
+    static final int IS_HIT = 1 << 3;
+    static final int MAX_ALLOWED_HITS = 1 << 4;
+
+    ServerMessageType messageType;
+    String sessionId;
+    ErrorMessage errorMessage;
+    int present;
+    boolean isYourTurn;
+    long gameTimeInNs;
+    boolean isWin;
+    Vec2 torpedoPos;
+    boolean isHit;
+    Vec2 boardSize;
+    int[] shipSizes;
+    int maxAllowedHits;
+
+    /**
+     * A message where nothing is set, like after {@link #reset()}
+     */
+    public CompactServerMessage() {}
+
+    /**
+     * Clears every field
+     * @return this
+     */
+    public CompactServerMessage reset() {
+        messageType = null;
+        sessionId = null;
+        errorMessage = null;
+        present = 0;
+        torpedoPos = null;
+        boardSize = null;
+        shipSizes = null;
+        return this;
+    }
+
+    public static CompactServerMessage from(ServerMessage sm) {
+        CompactServerMessage m = new CompactServerMessage();
+        m.messageType = sm.messageType;
+        m.sessionId = sm.sessionId;
+        m.errorMessage = sm.errorMessage;
+        if (sm.isYourTurn != null)
+            m.setYourTurn(sm.isYourTurn);
+        if (sm.gameTimeInNs != null)
+            m.setGameTimeInNs(sm.gameTimeInNs);
+        if (sm.isWin != null)
+            m.setWin(sm.isWin);
+        m.torpedoPos = sm.torpedoPos;
+        if (sm.isHit != null)
+            m.setHit(sm.isHit);
+        m.boardSize = sm.boardSize;
+        if (sm.shipSizes != null) {
+            m.shipSizes = new int[sm.shipSizes.size()];
+            for (int i = 0; i < m.shipSizes.length; i++)
+                m.shipSizes[i] = sm.shipSizes.get(i);
+        }
+        if (sm.maxAllowedHits != null)
+            m.setMaxAllowedHits(sm.maxAllowedHits);
+        return m;
+    }
+
+    public ServerMessage toServerMessage() {
+        ServerMessage sm = new ServerMessage();
+        sm.messageType = messageType;
+        sm.sessionId = sessionId;
+        sm.errorMessage = errorMessage;
+        sm.isYourTurn = hasYourTurn() ? isYourTurn : null;
+        sm.gameTimeInNs = hasGameTimeInNs() ? gameTimeInNs : null;
+        sm.isWin = hasWin() ? isWin : null;
+        sm.torpedoPos = torpedoPos;
+        sm.isHit = hasHit() ? isHit : null;
+        sm.boardSize = boardSize;
+        if (shipSizes != null) {
+            List<Integer> sizes = new ArrayList<>(shipSizes.length);
+            for (int size : shipSizes)
+                sizes.add(size);
+            sm.shipSizes = sizes;
+        }
+        sm.maxAllowedHits = hasMaxAllowedHits() ? maxAllowedHits : null;
+        return sm;
+    }
+
+    public CompactServerMessage fillAck() {
+        reset();
+        messageType = ServerMessageType.Ack;
+        return this;
+    }
+
+    public CompactServerMessage fillGiveSessionId(String sessionId) {
+        reset();
+        messageType = ServerMessageType.GiveSessionId;
+        this.sessionId = sessionId;
+        return this;
+    }
+
+    /**
+     * @param shipSizes kept by the message, not copied
+     */
+    public CompactServerMessage fillGameStart(String sessionId, boolean isYourTurn, Vec2 boardSize, int[] shipSizes, int maxAllowedHits) {
+        reset();
+        messageType = ServerMessageType.GameStart;
+        this.sessionId = sessionId;
+        this.boardSize = boardSize;
+        this.shipSizes = shipSizes;
+        setYourTurn(isYourTurn);
+        return setMaxAllowedHits(maxAllowedHits);
+    }
+
+    public CompactServerMessage fillEnemyDisconnected(String sessionId) {
+        reset();
+        messageType = ServerMessageType.EnemyDisconnected;
+        this.sessionId = sessionId;
+        return this;
+    }
+
+    public CompactServerMessage fillGameEnd(long gameTime, boolean isWin) {
+        reset();
+        messageType = ServerMessageType.GameEnd;
+        setGameTimeInNs(gameTime);
+        return setWin(isWin);
+    }
+
+    public CompactServerMessage fillTurnChange(String sessionId, boolean isYourTurn) {
+        reset();
+        messageType = ServerMessageType.TurnChange;
+        this.sessionId = sessionId;
+        return setYourTurn(isYourTurn);
+    }
+
+    public CompactServerMessage fillReceiveTorpedo(String sessionId, Vec2 torpedoPos) {
+        reset();
+        messageType = ServerMessageType.ReceiveTorpedo;
+        this.sessionId = sessionId;
+        this.torpedoPos = torpedoPos;
+        return this;
+    }
+
+    public CompactServerMessage fillSendTorpedoAck(String sessionId, Vec2 torpedoPos, boolean isHit) {
+        reset();
+        messageType = ServerMessageType.SendTorpedoAck;
+        this.sessionId = sessionId;
+        this.torpedoPos = torpedoPos;
+        return setHit(isHit);
+    }
+
+    public ServerMessageType getMessageType() {
+        return messageType;
+    }
+
+    public CompactServerMessage setMessageType(ServerMessageType messageType) {
+        this.messageType = messageType;
+        return this;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public CompactServerMessage setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+        return this;
+    }
+
+    public ErrorMessage getErrorMessage() {
+        return errorMessage;
+    }
+
+    public CompactServerMessage setErrorMessage(ErrorMessage errorMessage) {
+        this.errorMessage = errorMessage;
+        return this;
+    }
+
+    public boolean hasYourTurn() {
+        return (present & IS_YOUR_TURN) != 0;
+    }
+
+    /**
+     * @return false if it is not set
+     */
+    public boolean isYourTurn() {
+        return hasYourTurn() && isYourTurn;
+    }
+
+    public CompactServerMessage setYourTurn(boolean isYourTurn) {
+        this.isYourTurn = isYourTurn;
+        present |= IS_YOUR_TURN;
+        return this;
+    }
+
+    public boolean hasGameTimeInNs() {
+        return (present & GAME_TIME_IN_NS) != 0;
+    }
+
+    /**
+     * @return 0 if it is not set
+     */
+    public long getGameTimeInNs() {
+        return hasGameTimeInNs() ? gameTimeInNs : 0;
+    }
+
+    public CompactServerMessage setGameTimeInNs(long gameTimeInNs) {
+        this.gameTimeInNs = gameTimeInNs;
+        present |= GAME_TIME_IN_NS;
+        return this;
+    }
+
+    public boolean hasWin() {
+        return (present & IS_WIN) != 0;
+    }
+
+    /**
+     * @return false if it is not set
+     */
+    public boolean isWin() {
+        return hasWin() && isWin;
+    }
+
+    public CompactServerMessage setWin(boolean isWin) {
+        this.isWin = isWin;
+        present |= IS_WIN;
+        return this;
+    }
+
+    public Vec2 getTorpedoPos() {
+        return torpedoPos;
+    }
+
+    public CompactServerMessage setTorpedoPos(Vec2 torpedoPos) {
+        this.torpedoPos = torpedoPos;
+        return this;
+    }
+
+    public boolean hasHit() {
+        return (present & IS_HIT) != 0;
+    }
+
+    /**
+     * @return false if it is not set
+     */
+    public boolean isHit() {
+        return hasHit() && isHit;
+    }
+
+    public CompactServerMessage setHit(boolean isHit) {
+        this.isHit = isHit;
+        present |= IS_HIT;
+        return this;
+    }
+
+    public Vec2 getBoardSize() {
+        return boardSize;
+    }
+
+    public CompactServerMessage setBoardSize(Vec2 boardSize) {
+        this.boardSize = boardSize;
+        return this;
+    }
+
+    /**
+     * @return the sizes, not a copy, or null if they are not set
+     */
+    public int[] getShipSizes() {
+        return shipSizes;
+    }
+
+    public CompactServerMessage setShipSizes(int[] shipSizes) {
+        this.shipSizes = shipSizes;
+        return this;
+    }
+
+    public boolean hasMaxAllowedHits() {
+        return (present & MAX_ALLOWED_HITS) != 0;
+    }
+
+    /**
+     * @return 0 if it is not set
+     */
+    public int getMaxAllowedHits() {
+        return hasMaxAllowedHits() ? maxAllowedHits : 0;
+    }
+
+    public CompactServerMessage setMaxAllowedHits(int maxAllowedHits) {
+        this.maxAllowedHits = maxAllowedHits;
+        present |= MAX_ALLOWED_HITS;
+        return this;
+    }
+
+    public String serialize() {
+        try {
+            return MessageCodec.COMPACT_SERVER_MESSAGE_WRITER.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            assert false : "Should never fail to serialize CompactServerMessage object into variable";
+            return "";
+        }
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON into <code>output</code>, the stream is not closed.
+     */
+    public void serialize(OutputStream output) throws IOException {
+        MessageCodec.COMPACT_SERVER_MESSAGE_WRITER.writeValue(output, this);
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON into <code>output</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>output</code> does not have enough room, its position is left unchanged
+     */
+    public int serialize(ByteBuffer output) throws IOException {
+        return MessageCodec.writeValue(MessageCodec.COMPACT_SERVER_MESSAGE_WRITER, this, output);
+    }
+
+    public static Result<CompactServerMessage, ErrorMessage> deserialize(String message) {
+        try {
+            return Result.Ok(MessageCodec.COMPACT_SERVER_MESSAGE_READER.readValue(message));
+        } catch (Exception e) {
+            return Result.Err(malformedMessage(e.getLocalizedMessage(), message));
+        }
+    }
+
+    /**
+     * Deserializes <code>length</code> bytes of UTF-8 encoded JSON starting at <code>offset</code>.
+     */
+    public static Result<CompactServerMessage, ErrorMessage> deserialize(byte[] message, int offset, int length) {
+        try {
+            return Result.Ok(MessageCodec.COMPACT_SERVER_MESSAGE_READER.readValue(message, offset, length));
+        } catch (Exception e) {
+            return Result.Err(malformedMessage(e.getLocalizedMessage(), new String(message, offset, length, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static ErrorMessage malformedMessage(String deserializerMessage, String input) {
+        return MessageCodec.malformedMessage(ServerMessage.class.getSimpleName(), deserializerMessage, input);
+    }
+
+    @Override
+    public String toString() {
+        return serialize();
+    }
+}
+
+/**
+ * Writes the fields in the order databind writes the fields of {@link ServerMessage}
+ */
+class CompactServerMessageSerializer extends StdSerializer<CompactServerMessage> {
+    private static final long serialVersionUID = 1L;
+
+    public CompactServerMessageSerializer() {
+        super(CompactServerMessage.class);
+    }
+
+    @Override
+    public void serialize(CompactServerMessage m, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        generator.writeStartObject();
+        if (m.messageType != null)
+            generator.writeNumberField("messageType", m.messageType.getValue());
+        if (m.sessionId != null)
+            generator.writeStringField("sessionId", m.sessionId);
+        if (m.errorMessage != null) {
+            generator.writeFieldName("errorMessage");
+            provider.defaultSerializeValue(m.errorMessage, generator);
+        }
+        if ((m.present & CompactServerMessage.IS_YOUR_TURN) != 0)
+            generator.writeBooleanField("isYourTurn", m.isYourTurn);
+        if ((m.present & CompactServerMessage.GAME_TIME_IN_NS) != 0)
+            generator.writeNumberField("gameTimeInNs", m.gameTimeInNs);
+        if ((m.present & CompactServerMessage.IS_WIN) != 0)
+            generator.writeBooleanField("isWin", m.isWin);
+        if (m.torpedoPos != null)
+            writeVec2(generator, "torpedoPos", m.torpedoPos);
+        if ((m.present & CompactServerMessage.IS_HIT) != 0)
+            generator.writeBooleanField("isHit", m.isHit);
+        if (m.boardSize != null)
+            writeVec2(generator, "boardSize", m.boardSize);
+        if (m.shipSizes != null) {
+            generator.writeFieldName("shipSizes");
+            generator.writeArray(m.shipSizes, 0, m.shipSizes.length);
+        }
+        if ((m.present & CompactServerMessage.MAX_ALLOWED_HITS) != 0)
+            generator.writeNumberField("maxAllowedHits", m.maxAllowedHits);
+        generator.writeEndObject();
+    }
+
+    private static void writeVec2(JsonGenerator generator, String field, Vec2 v) throws IOException {
+        generator.writeFieldName(field);
+        generator.writeStartObject();
+        generator.writeNumberField("x", v.x);
+        generator.writeNumberField("y", v.y);
+        generator.writeEndObject();
+    }
+}
+
+/**
+ * Reads the tokens straight into the primitive fields, <code>null</code> values are left unset
+ */
+class CompactServerMessageDeserializer extends StdDeserializer<CompactServerMessage> {
+    private static final long serialVersionUID = 1L;
+
+    public CompactServerMessageDeserializer() {
+        super(CompactServerMessage.class);
+    }
+
+    @Override
+    public CompactServerMessage deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (!p.isExpectedStartObjectToken())
+            return (CompactServerMessage) ctxt.handleUnexpectedToken(CompactServerMessage.class, p);
+
+        CompactServerMessage m = new CompactServerMessage();
+        String field;
+        while ((field = p.nextFieldName()) != null) {
+            JsonToken t = p.nextToken();
+            if (t == JsonToken.VALUE_NULL)
+                continue;
+            switch (field) {
+                case "messageType":
+                    m.messageType = readType(p, t, ctxt);
+                    break;
+                case "sessionId":
+                    m.sessionId = p.getValueAsString();
+                    break;
+                case "errorMessage":
+                    m.errorMessage = ctxt.readValue(p, ErrorMessage.class);
+                    break;
+                case "isYourTurn":
+                    m.setYourTurn(_parseBooleanPrimitive(p, ctxt));
+                    break;
+                case "gameTimeInNs":
+                    m.setGameTimeInNs(_parseLongPrimitive(p, ctxt));
+                    break;
+                case "isWin":
+                    m.setWin(_parseBooleanPrimitive(p, ctxt));
+                    break;
+                case "torpedoPos":
+                    m.torpedoPos = readVec2(p, ctxt);
+                    break;
+                case "isHit":
+                    m.setHit(_parseBooleanPrimitive(p, ctxt));
+                    break;
+                case "boardSize":
+                    m.boardSize = readVec2(p, ctxt);
+                    break;
+                case "shipSizes":
+                    m.shipSizes = readInts(p, ctxt);
+                    break;
+                case "maxAllowedHits":
+                    m.setMaxAllowedHits(_parseIntPrimitive(p, ctxt));
+                    break;
+                default:
+                    ctxt.handleUnknownProperty(p, this, CompactServerMessage.class, field);
+                    break;
+            }
+        }
+        return m;
+    }
+
+    private ServerMessageType readType(JsonParser p, JsonToken t, DeserializationContext ctxt) throws IOException {
+        ServerMessageType type = null;
+        if (t == JsonToken.VALUE_NUMBER_INT) {
+            type = ServerMessageType.fromValue(p.getIntValue());
+        } else if (t == JsonToken.VALUE_STRING) {
+            String text = p.getText();
+            for (ServerMessageType candidate : ServerMessageType.values()) {
+                if (candidate.toString().equals(text) || Integer.toString(candidate.getValue()).equals(text))
+                    type = candidate;
+            }
+        }
+        if (type == null)
+            return (ServerMessageType) ctxt.handleWeirdStringValue(ServerMessageType.class, p.getText(),
+                    "not one of the values accepted for ServerMessageType");
+        return type;
+    }
+
+    private Vec2 readVec2(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (!p.isExpectedStartObjectToken())
+            return (Vec2) ctxt.handleUnexpectedToken(Vec2.class, p);
+        int x = 0;
+        int y = 0;
+        String name;
+        while ((name = p.nextFieldName()) != null) {
+            p.nextToken();
+            switch (name) {
+                case "x":
+                    x = _parseIntPrimitive(p, ctxt);
+                    break;
+                case "y":
+                    y = _parseIntPrimitive(p, ctxt);
+                    break;
+                default:
+                    ctxt.handleUnknownProperty(p, this, Vec2.class, name);
+                    break;
+            }
+        }
+        return Vec2.of(x, y);
+    }
+
+    private int[] readInts(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (!p.isExpectedStartArrayToken())
+            return (int[]) ctxt.handleUnexpectedToken(int[].class, p);
+        int[] values = new int[8];
+        int count = 0;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count++] = _parseIntPrimitive(p, ctxt);
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+}
@@ -0,0 +1,44 @@
+package com.csabapro.core.messaging;
+
+/**
+ * The kind of an {@link ErrorMessage}, its name is the key of the error in JSON.
+ * <p>
+ * The codes are shared constants, everything specific to one occurrence of an error
+ * lives in the {@link ErrorMessage} instance.
+ */
+public enum ErrorCode {
+    /** The vars of a malformed message are supplied by the caller */
+    MalformedMessage,
+    IncorrectConnectionId("connectionId"),
+    TooManyPlayers("sessionId"),
+    SessionNotFound("sessionId"),
+    PlayerOutOfTurn("sessionId"),
+    ActionOutOfTurn("sessionId", "action"),
+    ShipOutOfBounds("sessionId", "ship", "positions"),
+    TorpedoOutOfBounds("sessionId", "position"),
+    ShipOverlap("sessionId", "ship", "positions"),
+    TorpedoOverlap("sessionId", "position"),
+    IncorrectShipSize("sessionId", "ship"),
+    /** No public session was waiting for a guest when a player asked to join any */
+    NoOpenSession;
+
+    private final String[] varNames;
+
+    private ErrorCode(String... varNames) {
+        this.varNames = varNames;
+    }
+
+    /**
+     * @return the number of vars an error with this code carries
+     */
+    public int getVarCount() {
+        return varNames.length;
+    }
+
+    /**
+     * @return the key of the i-th var in the <code>vars</code> map
+     */
+    public String getVarName(int i) {
+        return varNames[i];
+    }
+}
@@ -1,7 +1,9 @@
 package com.csabapro.core.messaging;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -11,12 +13,10 @@ import com.csabapro.core.game.Vec2;
 import com.csabapro.core.result.Result;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.annotation.JsonValue;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -33,153 +33,195 @@ import com.fasterxml.jackson.databind.ser.std.StdSerializer;
  *  }
  * }
  * </pre>
+ * An instance describes one occurrence of an error and is immutable, so it can be shared between threads.
+ * The reason text is only built when it is first needed.
  */
 @JsonSerialize(using = ErrorSerializer.class)
 @JsonDeserialize(using = ErrorDeserializer.class)
 @JsonInclude(value = Include.NON_NULL)
-public enum ErrorMessage {
-    MalformedMessage,
-    IncorrectConnectionId,
-    TooManyPlayers,
-    SessionNotFound,
-    PlayerOutOfTurn,
-    ActionOutOfTurn,
-    ShipOutOfBounds,
-    TorpedoOutOfBounds,
-    ShipOverlap,
-    TorpedoOverlap,
-    IncorrectShipSize;
-
-    public String reason;
-    public Map<String, Object> vars = new HashMap<>();
-
-    private ErrorMessage() { }
-
-    @JsonValue
-    public String getValue() {
-        return "MalformedMessage";
+public final class ErrorMessage {
+    private final ErrorCode code;
+    /** The values of the vars of the code, in the order of {@link ErrorCode#getVarName(int)} */
+    private final Object[] args;
+    /** Extra argument of the reason that is not a var, e.g. the reason of a malformed message */
+    private final String detail;
+    /** Computed on first use, racing threads compute the same value */
+    private String reason;
+    /** Computed on first use unless the vars are supplied by the caller */
+    private Map<String, Object> vars;
+
+    private ErrorMessage(ErrorCode code, String detail, Object... args) {
+        this.code = code;
+        this.detail = detail;
+        this.args = args;
+    }
+
+    private ErrorMessage(ErrorCode code, String reason, Map<String, Object> vars) {
+        this.code = code;
+        this.detail = null;
+        this.args = new Object[0];
+        this.reason = reason;
+        this.vars = Collections.unmodifiableMap(vars);
+    }
+
+    public ErrorCode getCode() {
+        return code;
+    }
+
+    /**
+     * The text explaining the error, it is only built when it is first asked for,
+     * e.g. when the error is serialized.
+     */
+    public String getReason() {
+        String r = reason;
+        if (r == null) {
+            r = buildReason();
+            reason = r;
+        }
+        return r;
+    }
+
+    /**
+     * @return an unmodifiable map of the variables used in the reason
+     */
+    public Map<String, Object> getVars() {
+        Map<String, Object> v = vars;
+        if (v == null) {
+            LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < args.length; i++)
+                map.put(code.getVarName(i), getVar(i));
+            v = Collections.unmodifiableMap(map);
+            vars = v;
+        }
+        return v;
+    }
+
+    /**
+     * Writes the vars as a JSON object without building the map of {@link #getVars()}
+     */
+    void writeVars(JsonGenerator generator) throws IOException {
+        Map<String, Object> v = vars;
+        if (v != null) {
+            generator.writeObject(v);
+            return;
+        }
+        generator.writeStartObject();
+        for (int i = 0; i < args.length; i++) {
+            generator.writeFieldName(code.getVarName(i));
+            generator.writeObject(getVar(i));
+        }
+        generator.writeEndObject();
+    }
+
+    private Object getVar(int i) {
+        // the torpedo position of this error has always been sent as its JSON string
+        if (code == ErrorCode.TorpedoOutOfBounds && i == 1)
+            return stringify(args[i]);
+        return args[i];
+    }
+
+    private static String stringify(Object value) {
+        try {
+            return MessageCodec.writeValueAsString(value);
+        } catch (Exception e) {
+            assert false : "Should be able to stringify " + value;
+            return "";
+        }
+    }
+
+    private String buildReason() {
+        switch (code) {
+            case MalformedMessage:
+                return "Malformed message with type: `" + args[0] + "`. " + detail;
+            case IncorrectConnectionId:
+                return "Incorrect connectionId: `" + args[0] + "`.";
+            case TooManyPlayers:
+                return "Attempted to join session with id: `" + args[0] + "`. But game already has enough players.";
+            case SessionNotFound:
+                return "Session with id: `" + args[0] + "` does not exist.";
+            case PlayerOutOfTurn:
+                return "Attempted to take action in session with id: `" + args[0] + "`. But it isn't your turn.";
+            case ActionOutOfTurn:
+                return "Attempted to take action in session with id: `" + args[0] + "`. But current action is `" + args[1] + "`.";
+            case ShipOutOfBounds:
+                return "In session with id: `" + args[0] + "`. Attempted to place ship: `" + stringify(args[1]) + "`. But positions: `" + stringify(args[2]) + "` are out of bounds.";
+            case TorpedoOutOfBounds:
+                return "In session with id: `" + args[0] + "`. Attempted to place torpedo. But position: `" + stringify(args[1]) + "` is out of bounds";
+            case ShipOverlap:
+                return "In session with id: `" + args[0] + "`. Attempted to place ship: `" + stringify(args[1]) + "`. But positions: " + stringify(args[2]) + "` are out of bounds";
+            case TorpedoOverlap:
+                return "In session with id: `" + args[0] + "`. Attempted to place torpedo. But position: `" + stringify(args[1]) + "` is out of bounds";
+            case IncorrectShipSize:
+                return "In session with id: `" + args[0] + "`. Attempted to place ship with incorrect size. Size: `" + ((Ship) args[1]).getSize() + "`.";
+            case NoOpenSession:
+                return "There is no public session waiting for a guest.";
+            default:
+                assert false : "Unreachable"; // we should never get here
+                return "";
+        }
     }
 
     public static ErrorMessage MalformedMessage(String type, String reason, Map<String, Object> vars) {
-        ErrorMessage m = MalformedMessage;
-        m.reason = "Malformed message with type: `" + type + "`. " + reason;
-        m.vars = vars;
+        ErrorMessage m = new ErrorMessage(ErrorCode.MalformedMessage, reason, type);
+        // a copy, the caller may go on changing its map
+        m.vars = Collections.unmodifiableMap(new HashMap<>(vars));
         return m;
     }
 
     public static ErrorMessage IncorrectConnectionId(String connectionId) {
-        ErrorMessage m = IncorrectConnectionId;
-        m.reason = "Incorrect connectionId: `" + connectionId + "`.";
-        m.vars.put("connectionId", connectionId);
-        return m;
+        return new ErrorMessage(ErrorCode.IncorrectConnectionId, null, connectionId);
     }
 
     public static ErrorMessage TooManyPlayers(String sessionId) {
-        ErrorMessage m = TooManyPlayers;
-        m.reason = "Attempted to join session with id: `" + sessionId + "`. But game already has enough players.";
-        m.vars.put("sessionId", sessionId);
-        return m;
+        return new ErrorMessage(ErrorCode.TooManyPlayers, null, sessionId);
     }
 
     public static ErrorMessage SessionNotFound(String sessionId) {
-        ErrorMessage m = SessionNotFound;
-        m.reason = "Session with id: `" + sessionId + "` does not exist.";
-        m.vars.put("sessionId", sessionId);
-        return m;
+        return new ErrorMessage(ErrorCode.SessionNotFound, null, sessionId);
+    }
+
+    public static ErrorMessage NoOpenSession() {
+        return new ErrorMessage(ErrorCode.NoOpenSession, null);
     }
 
     public static ErrorMessage PlayerOutOfTurn(String sessionId) {
-        ErrorMessage m = PlayerOutOfTurn;
-        m.reason = "Attempted to take action in session with id: `" + sessionId + "`. But it isn't your turn.";
-        m.vars.put("sessionId", sessionId);
-        return m;
+        return new ErrorMessage(ErrorCode.PlayerOutOfTurn, null, sessionId);
     }
 
     public static ErrorMessage ActionOutOfTurn(String sessionId, Action action) {
-        ErrorMessage m = ActionOutOfTurn;
-        m.reason = "Attempted to take action in session with id: `" + sessionId + "`. But current action is `" + action + "`.";
-        m.vars.put("sessionId", sessionId);
-        m.vars.put("action", action);
-        return m;
+        return new ErrorMessage(ErrorCode.ActionOutOfTurn, null, sessionId, action);
     }
 
     public static ErrorMessage ShipOutOfBounds(String sessionId, Ship ship, List<Vec2> positions) {
-        ErrorMessage m = ShipOutOfBounds;
-        ObjectMapper oMapper = new ObjectMapper();
-        String shipString = "";
-        String posString = "";
-        try {
-            shipString = oMapper.writeValueAsString(ship);
-            posString = oMapper.writeValueAsString(positions);
-        } catch (Exception e) {
-            assert false : "Should be able to stringify ship and position";
-        } 
-        m.reason = "In session with id: `" + sessionId + "`. Attempted to place ship: `" + shipString + "`. But positions: `" + posString + "` are out of bounds.";  
-        m.vars.put("sessionId", sessionId);
-        m.vars.put("ship", ship);
-        m.vars.put("positions", positions);
-        return m;
+        return new ErrorMessage(ErrorCode.ShipOutOfBounds, null, sessionId, ship, positions);
     }
 
     public static ErrorMessage TorpedoOutOfBounds(String sessionId, Vec2 torpedo) {
-        ErrorMessage m = TorpedoOutOfBounds;
-        ObjectMapper oMapper = new ObjectMapper();
-        String torpedoPos = "";
-        try {
-            torpedoPos = oMapper.writeValueAsString(torpedo);
-        } catch (Exception e) {
-            assert false : "Should be able to stringify torpedo position";
-        } 
-        m.reason = "In session with id: `" + sessionId + "`. Attempted to place torpedo. But position: `" + torpedoPos + "` is out of bounds";  
-        m.vars.put("sessionId", sessionId);
-        m.vars.put("position", torpedoPos);
-        return m;
+        return new ErrorMessage(ErrorCode.TorpedoOutOfBounds, null, sessionId, torpedo);
     }
 
     public static ErrorMessage ShipOverlap(String sessionId, Ship ship, List<Vec2> positions) {
-        ErrorMessage m = ShipOverlap;
-        ObjectMapper oMapper = new ObjectMapper();
-        String shipString = "";
-        String posString = "";
-        try {
-            shipString = oMapper.writeValueAsString(ship);
-            posString = oMapper.writeValueAsString(positions);
-        } catch (Exception e) {
-            assert false : "Should be able to stringify ship and position";
-        } 
-        m.reason = "In session with id: `" + sessionId + "`. Attempted to place ship: `" + shipString + "`. But positions: " + posString + "` are out of bounds";
-        m.vars.put("sessionId", sessionId);
-        m.vars.put("ship", ship);
-        m.vars.put("positions", positions);
-        return m;
+        return new ErrorMessage(ErrorCode.ShipOverlap, null, sessionId, ship, positions);
     }
 
     public static ErrorMessage TorpedoOverlap(String sessionId, Vec2 position) {
-        ErrorMessage m = TorpedoOverlap;
-        ObjectMapper oMapper = new ObjectMapper();
-        String posString = "";
-        try {
-            posString = oMapper.writeValueAsString(position);
-        } catch (Exception e) {
-            assert false : "Should be able to stringify ship and position";
-        } 
-        m.reason = "In session with id: `" + sessionId + "`. Attempted to place torpedo. But position: `" + posString + "` is out of bounds";
-        m.vars.put("sessionId", sessionId);
-        m.vars.put("position", position);
-        return m;
+        return new ErrorMessage(ErrorCode.TorpedoOverlap, null, sessionId, position);
     }
 
     public static ErrorMessage IncorrectShipSize(String sessionId, Ship ship) {
-        ErrorMessage m = IncorrectShipSize;
-        m.reason = "In session with id: `" + sessionId + "`. Attempted to place ship with incorrect size. Size: `" + ship.getSize() + "`.";
-        m.vars.put("sessionId", sessionId);
-        m.vars.put("ship", ship);
-        return m;
+        return new ErrorMessage(ErrorCode.IncorrectShipSize, null, sessionId, ship);
+    }
+
+    /**
+     * Recreates an error that was read from its JSON representation.
+     */
+    static ErrorMessage fromJson(ErrorCode code, String reason, Map<String, Object> vars) {
+        return new ErrorMessage(code, reason, vars);
     }
 
     public String serialize() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return MessageCodec.ERROR_MESSAGE_WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             assert false;
             return "";
@@ -188,7 +230,7 @@ public enum ErrorMessage {
 
     public static Result<ErrorMessage, ErrorMessage> deserialize(String input) {
         try {
-            ErrorMessage ok = new ObjectMapper().readerFor(ErrorMessage.class).readValue(input);
+            ErrorMessage ok = MessageCodec.ERROR_MESSAGE_READER.readValue(input);
             return Result.Ok(ok);
         } catch (Exception e) {
             String reason = "Error occured while trying to deserialize ErrorMessage: " + e.getLocalizedMessage();
@@ -200,6 +242,11 @@ public enum ErrorMessage {
             return Result.Err(err);
         }
     }
+
+    @Override
+    public String toString() {
+        return serialize();
+    }
 }
 
 class ErrorSerializer extends StdSerializer<ErrorMessage> {
@@ -217,12 +264,12 @@ class ErrorSerializer extends StdSerializer<ErrorMessage> {
             ErrorMessage error, JsonGenerator generator, SerializerProvider provider)
             throws IOException, JsonProcessingException {
         generator.writeStartObject();
-        generator.writeFieldName(error.name());
+        generator.writeFieldName(error.getCode().name());
         generator.writeStartObject();
         generator.writeFieldName("reason");
-        generator.writeString(error.reason);
+        generator.writeString(error.getReason());
         generator.writeFieldName("vars");
-        generator.writeObject(error.vars);
+        error.writeVars(generator);
         generator.writeEndObject();
         generator.writeEndObject();
     }
@@ -241,17 +288,15 @@ class ErrorDeserializer extends StdDeserializer<ErrorMessage> {
     @Override
     public ErrorMessage deserialize(JsonParser jsonParser, DeserializationContext ctxt)
             throws IOException {
-        ObjectMapper mapper = (ObjectMapper) jsonParser.getCodec();
-        ObjectNode node = mapper.readTree(jsonParser);
+        ObjectNode node = jsonParser.readValueAsTree();
 
         String errTypeString = node.fieldNames().next();
-        for (ErrorMessage errType : ErrorMessage.values()) {
-            if (!errType.name().equals(errTypeString))
+        for (ErrorCode code : ErrorCode.values()) {
+            if (!code.name().equals(errTypeString))
                 continue;
-            errType.reason = node.get(errTypeString).get("reason").asText();
-            errType.vars = mapper.readerFor(errType.vars.getClass())
-                    .readValue(node.get(errTypeString).get("vars").toString());
-            return errType;
+            String reason = node.get(errTypeString).get("reason").asText();
+            Map<String, Object> vars = MessageCodec.VARS_READER.readValue(node.get(errTypeString).get("vars"));
+            return ErrorMessage.fromJson(code, reason, vars);
         }
 
         ctxt.handleWeirdKey(String.class, errTypeString, "%s is not in ServerError", errTypeString);
@@ -0,0 +1,156 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedOutputStream;
+
+/**
+ * Shared Jackson readers and writers for every message type.
+ * <p>
+ * Creating an {@link ObjectMapper} redoes annotation introspection and serializer lookup,
+ * so it is done exactly once here. {@link ObjectReader} and {@link ObjectWriter} are immutable
+ * and thread-safe, every message class gets its own pre-built instance and they are warmed up
+ * when this class is initialized.
+ */
+public final class MessageCodec {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            // callers own the streams they hand in, a message must not close them
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    public static final ObjectReader CLIENT_MESSAGE_READER = MAPPER.readerFor(ClientMessage.class);
+    public static final ObjectWriter CLIENT_MESSAGE_WRITER = MAPPER.writerFor(ClientMessage.class);
+
+    public static final ObjectReader SERVER_MESSAGE_READER = MAPPER.readerFor(ServerMessage.class);
+    public static final ObjectWriter SERVER_MESSAGE_WRITER = MAPPER.writerFor(ServerMessage.class);
+
+    public static final ObjectReader COMPACT_SERVER_MESSAGE_READER = MAPPER.readerFor(CompactServerMessage.class);
+    public static final ObjectWriter COMPACT_SERVER_MESSAGE_WRITER = MAPPER.writerFor(CompactServerMessage.class);
+
+    public static final ObjectReader ERROR_MESSAGE_READER = MAPPER.readerFor(ErrorMessage.class);
+    public static final ObjectWriter ERROR_MESSAGE_WRITER = MAPPER.writerFor(ErrorMessage.class);
+
+    /** Reader for the free form <code>vars</code> map of an {@link ErrorMessage} */
+    public static final ObjectReader VARS_READER = MAPPER.readerFor(HashMap.class);
+
+    /** Writer for values that are not messages themselves, e.g. a {@link Ship} in an error reason */
+    public static final ObjectWriter VALUE_WRITER = MAPPER.writer();
+
+    static {
+        warmUp();
+    }
+
+    private MessageCodec() {}
+
+    /**
+     * @return the factory used by every reader and writer in this class
+     */
+    public static JsonFactory getFactory() {
+        return MAPPER.getFactory();
+    }
+
+    /**
+     * Stringifies a value that is not a message itself.
+     * @throws JsonProcessingException if the value can not be serialized
+     */
+    public static String writeValueAsString(Object value) throws JsonProcessingException {
+        return VALUE_WRITER.writeValueAsString(value);
+    }
+
+    /**
+     * Reads a value from the remaining bytes of <code>src</code> without copying them into a String.
+     * On success the position of <code>src</code> is moved to its limit.
+     */
+    static <T> T readValue(ObjectReader reader, ByteBuffer src) throws IOException {
+        T value;
+        if (src.hasArray()) {
+            value = reader.readValue(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        } else {
+            value = reader.readValue(new ByteBufferBackedInputStream(src.duplicate()));
+        }
+        src.position(src.limit());
+        return value;
+    }
+
+    /**
+     * Writes the UTF-8 encoded value straight into <code>dst</code>.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>dst</code> does not have enough room, its position is left unchanged
+     */
+    static int writeValue(ObjectWriter writer, Object value, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        try {
+            writer.writeValue(new ByteBufferBackedOutputStream(dst), value);
+        } catch (BufferOverflowException e) {
+            dst.position(start);
+            throw e;
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Decodes the remaining bytes of <code>src</code> for error reporting, does not move its position.
+     */
+    static String toString(ByteBuffer src) {
+        ByteBuffer copy = src.duplicate();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the error returned when a message of the given type could not be read.
+     * @param input the raw message, left out of the vars when null
+     */
+    static ErrorMessage malformedMessage(String type, String deserializerMessage, String input) {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("type", type);
+        map.put("deserializerMessage", deserializerMessage);
+        if (input != null)
+            map.put("input", input);
+        return ErrorMessage.MalformedMessage(type, deserializerMessage, map);
+    }
+
+    /**
+     * Round trips a sample of every message so that the first real message does not pay for
+     * resolving the nested (de)serializers.
+     */
+    private static void warmUp() {
+        Ship ship = new Ship(new Vec2(0, 0), Orientation.Horizontal, 1);
+        List<Integer> shipSizes = Arrays.asList(1);
+        Map<String, Object> vars = new HashMap<>();
+        vars.put("ship", ship);
+
+        try {
+            for (ClientMessage cm : new ClientMessage[] {
+                    ClientMessage.CreateSession(true),
+                    ClientMessage.SendTorpedo("", new Vec2(0, 0)),
+                    ClientMessage.PlaceShip("", ship) }) {
+                CLIENT_MESSAGE_READER.readValue(CLIENT_MESSAGE_WRITER.writeValueAsBytes(cm));
+            }
+            ServerMessage sm = ServerMessage.GameStart("", true, new Vec2(1, 1), shipSizes, 1);
+            SERVER_MESSAGE_READER.readValue(SERVER_MESSAGE_WRITER.writeValueAsBytes(sm));
+            VARS_READER.readValue(VALUE_WRITER.writeValueAsBytes(vars));
+        } catch (IOException e) {
+            assert false : "Warming up the message codec should never fail: " + e.getLocalizedMessage();
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package com.csabapro.core.messaging;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import com.csabapro.core.game.Vec2;
+import com.csabapro.core.metrics.Metrics;
+import com.csabapro.core.metrics.MetricsSink;
 import com.csabapro.core.result.Result;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 @JsonInclude(value = Include.NON_NULL)
 public class ServerMessage {
@@ -24,94 +29,195 @@ public class ServerMessage {
     public List<Integer> shipSizes;
     public Integer maxAllowedHits; // this is usually the sum of ship sizes
 
-    private ServerMessage() {}
+    ServerMessage() {}
+
+    /**
+     * A message without a type, meant to be kept and filled again with the <code>fill</code> methods
+     * instead of allocating a new message for every send.
+     */
+    public static ServerMessage Empty() {
+        return new ServerMessage();
+    }
+
+    /**
+     * Clears every field, filling a message resets it first.
+     * @return this
+     */
+    public ServerMessage reset() {
+        messageType = null;
+        sessionId = null;
+        errorMessage = null;
+        isYourTurn = null;
+        gameTimeInNs = null;
+        isWin = null;
+        torpedoPos = null;
+        isHit = null;
+        boardSize = null;
+        shipSizes = null;
+        maxAllowedHits = null;
+        return this;
+    }
 
     public static ServerMessage Ack() {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.Ack;
-        return sm;
+        return new ServerMessage().fillAck();
+    }
+
+    public ServerMessage fillAck() {
+        reset();
+        messageType = ServerMessageType.Ack;
+        return this;
     }
 
     public static ServerMessage GiveSessionId(String sessionId) {
-        ServerMessage sm = new ServerMessage();
-        sm.sessionId = sessionId;
-        sm.messageType = ServerMessageType.GiveSessionId;
-        return sm;
+        return new ServerMessage().fillGiveSessionId(sessionId);
+    }
+
+    public ServerMessage fillGiveSessionId(String sessionId) {
+        reset();
+        this.sessionId = sessionId;
+        messageType = ServerMessageType.GiveSessionId;
+        return this;
     }
 
     public static ServerMessage GameStart(String sessionId, boolean isYourTurn, Vec2 boardSize, List<Integer> shipSizes, Integer maxAllowedHits) {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.GameStart;
-        sm.sessionId = sessionId;
-        sm.isYourTurn = isYourTurn;
-        sm.boardSize = boardSize;
-        sm.shipSizes = shipSizes;
-        sm.maxAllowedHits = maxAllowedHits;
-        return sm;
+        return new ServerMessage().fillGameStart(sessionId, isYourTurn, boardSize, shipSizes, maxAllowedHits);
+    }
+
+    public ServerMessage fillGameStart(String sessionId, boolean isYourTurn, Vec2 boardSize, List<Integer> shipSizes, Integer maxAllowedHits) {
+        reset();
+        messageType = ServerMessageType.GameStart;
+        this.sessionId = sessionId;
+        this.isYourTurn = isYourTurn;
+        this.boardSize = boardSize;
+        this.shipSizes = shipSizes;
+        this.maxAllowedHits = maxAllowedHits;
+        return this;
     }
 
     public static ServerMessage EnemyDisconnected(String sessionId) {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.EnemyDisconnected;
-        sm.sessionId = sessionId;
-        return sm;
+        return new ServerMessage().fillEnemyDisconnected(sessionId);
+    }
+
+    public ServerMessage fillEnemyDisconnected(String sessionId) {
+        reset();
+        messageType = ServerMessageType.EnemyDisconnected;
+        this.sessionId = sessionId;
+        return this;
     }
 
     public static ServerMessage GameEnd(long gameTime, boolean isWin) {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.GameEnd;
-        sm.gameTimeInNs = gameTime;
-        sm.isWin = isWin;
-        return sm;
+        return new ServerMessage().fillGameEnd(gameTime, isWin);
+    }
+
+    public ServerMessage fillGameEnd(long gameTime, boolean isWin) {
+        reset();
+        messageType = ServerMessageType.GameEnd;
+        gameTimeInNs = gameTime;
+        this.isWin = isWin;
+        return this;
     }
 
     public static ServerMessage TurnChange(String sessionId, boolean isYourTurn) {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.TurnChange;
-        sm.sessionId = sessionId;
-        sm.isYourTurn = isYourTurn;
-        return sm;
+        return new ServerMessage().fillTurnChange(sessionId, isYourTurn);
+    }
+
+    public ServerMessage fillTurnChange(String sessionId, boolean isYourTurn) {
+        reset();
+        messageType = ServerMessageType.TurnChange;
+        this.sessionId = sessionId;
+        this.isYourTurn = isYourTurn;
+        return this;
     }
 
     public static ServerMessage ReceiveTorpedo(String sessionId, Vec2 torpedoPos) {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.ReceiveTorpedo;
-        sm.sessionId = sessionId;
-        sm.torpedoPos = torpedoPos;
-        return sm;
+        return new ServerMessage().fillReceiveTorpedo(sessionId, torpedoPos);
+    }
+
+    public ServerMessage fillReceiveTorpedo(String sessionId, Vec2 torpedoPos) {
+        reset();
+        messageType = ServerMessageType.ReceiveTorpedo;
+        this.sessionId = sessionId;
+        this.torpedoPos = torpedoPos;
+        return this;
     }
 
     public static ServerMessage SendTorpedoAck(String sessionId, Vec2 torpedoPos, boolean isHit) {
-        ServerMessage sm = new ServerMessage();
-        sm.messageType = ServerMessageType.SendTorpedoAck;
-        sm.sessionId = sessionId;
-        sm.torpedoPos = torpedoPos;
-        sm.isHit = isHit;
-        return sm;
+        return new ServerMessage().fillSendTorpedoAck(sessionId, torpedoPos, isHit);
+    }
+
+    public ServerMessage fillSendTorpedoAck(String sessionId, Vec2 torpedoPos, boolean isHit) {
+        reset();
+        messageType = ServerMessageType.SendTorpedoAck;
+        this.sessionId = sessionId;
+        this.torpedoPos = torpedoPos;
+        this.isHit = isHit;
+        return this;
     }
 
     public String serialize() {
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            String json = MessageCodec.SERVER_MESSAGE_WRITER.writeValueAsString(this);
+            metrics.serverMessageEncoded(messageType, start);
+            return json;
         } catch (JsonProcessingException e) {
             assert false : "Should never fail to serialize ServerMessage object into variable";
             return "";
         }
     }
 
+    /**
+     * Writes the UTF-8 encoded JSON into <code>output</code>, the stream is not closed.
+     * Messages with a pre-rendered shape skip Jackson, see {@link ServerMessageTemplates}.
+     */
+    public void serialize(OutputStream output) throws IOException {
+        ServerMessageTemplates.write(this, output);
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON into <code>output</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>output</code> does not have enough room, its position is left unchanged
+     */
+    public int serialize(ByteBuffer output) throws IOException {
+        return ServerMessageTemplates.write(this, output);
+    }
+
+    /**
+     * Decodes with the streaming {@link ServerMessageDecoder}, a malformed message is an error result.
+     */
     public static Result<ServerMessage, ErrorMessage> deserialize(String message) {
-        ServerMessage sm = null;
-        try {
-            sm = new ObjectMapper().readerFor(ServerMessage.class).readValue(message);
-        } catch (Exception e) {
-            String deserializerMessage = e.getLocalizedMessage();
-            HashMap<String, Object> map = new HashMap<>();
-            map.put("type", ServerMessage.class.getSimpleName());
-            map.put("deserializerMessage", deserializerMessage);
-            map.put("input", message);
-            ErrorMessage.MalformedMessage(ServerMessage.class.getSimpleName(), deserializerMessage, map);
-        }
+        return ServerMessageDecoder.decode(message);
+    }
+
+    /**
+     * Deserializes UTF-8 encoded JSON without decoding it into a String first.
+     */
+    public static Result<ServerMessage, ErrorMessage> deserialize(byte[] message) {
+        return ServerMessageDecoder.decode(message, 0, message.length);
+    }
+
+    /**
+     * Deserializes <code>length</code> bytes of UTF-8 encoded JSON starting at <code>offset</code>.
+     */
+    public static Result<ServerMessage, ErrorMessage> deserialize(byte[] message, int offset, int length) {
+        return ServerMessageDecoder.decode(message, offset, length);
+    }
+
+    /**
+     * Deserializes the remaining UTF-8 encoded bytes of <code>message</code>.
+     * The position of <code>message</code> is only moved to its limit if it could be read.
+     */
+    public static Result<ServerMessage, ErrorMessage> deserialize(ByteBuffer message) {
+        return ServerMessageDecoder.decode(message);
+    }
 
-        return Result.Ok(sm);
+    /**
+     * Deserializes a single message from the stream, the stream is not closed.
+     * Since the stream can not be read twice the error will not contain the <code>input</code> variable.
+     */
+    public static Result<ServerMessage, ErrorMessage> deserialize(InputStream message) {
+        return ServerMessageDecoder.decode(message);
     }
 }
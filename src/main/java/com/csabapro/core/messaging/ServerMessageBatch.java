@@ -0,0 +1,146 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Encodes several {@link ServerMessage}s for the same recipient into one frame.
+ * <p>
+ * A turn sends a couple of messages to each player, batching them means one write and one
+ * websocket frame per player instead of one per message. The batch owns a single {@link JsonGenerator}
+ * and buffer that are reused for every frame, so it is meant to be kept per connection and
+ * is not thread-safe.
+ * <p>
+ * Every message in a frame is encoded exactly like {@link ServerMessage#serialize()} would.
+ */
+public final class ServerMessageBatch {
+    public enum Framing {
+        /** <code>[msg,msg]</code> */
+        JsonArray,
+        /** <code>msg\nmsg\n</code> */
+        NewlineDelimited,
+    }
+
+    // the buffer is flushed once per frame, not after every message
+    private static final ObjectWriter WRITER = MessageCodec.SERVER_MESSAGE_WRITER
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final Framing framing;
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(512);
+    private final JsonGenerator generator;
+    private int count = 0;
+
+    public ServerMessageBatch(Framing framing) {
+        this.framing = framing;
+        try {
+            this.generator = MessageCodec.getFactory().createGenerator(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing into memory should never fail", e);
+        }
+        // frames are separated by the transport, not by the generator
+        generator.setRootValueSeparator(null);
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    /**
+     * @return the number of messages in the current frame
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public ServerMessageBatch add(ServerMessage message) {
+        try {
+            if (count == 0 && framing == Framing.JsonArray)
+                generator.writeStartArray();
+            WRITER.writeValue(generator, message);
+            if (framing == Framing.NewlineDelimited)
+                generator.writeRaw('\n');
+        } catch (IOException e) {
+            assert false : "Should never fail to serialize ServerMessage object into variable";
+        }
+        count++;
+        return this;
+    }
+
+    /**
+     * Ends the current frame and starts a new one.
+     * An empty frame is <code>[]</code> or nothing depending on the framing.
+     */
+    public byte[] toByteArray() {
+        finishFrame();
+        byte[] frame = buffer.toByteArray();
+        buffer.reset();
+        return frame;
+    }
+
+    /**
+     * Ends the current frame and writes it into <code>output</code>, the stream is not closed.
+     * @return the number of bytes written
+     */
+    public int writeTo(OutputStream output) throws IOException {
+        byte[] frame = toByteArray();
+        output.write(frame);
+        return frame.length;
+    }
+
+    /**
+     * Ends the current frame and writes it into <code>output</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>output</code> does not have enough room, the frame is kept
+     * so that it can be written again into a larger buffer
+     */
+    public int writeTo(ByteBuffer output) {
+        flush();
+        int closing = framing != Framing.JsonArray ? 0 : count == 0 ? 2 : 1;
+        if (output.remaining() < buffer.size() + closing)
+            throw new BufferOverflowException();
+        byte[] frame = toByteArray();
+        output.put(frame);
+        return frame.length;
+    }
+
+    /**
+     * Drops the messages of the current frame
+     */
+    public void clear() {
+        finishFrame();
+        buffer.reset();
+    }
+
+    private void finishFrame() {
+        try {
+            if (framing == Framing.JsonArray) {
+                if (count == 0)
+                    generator.writeStartArray();
+                generator.writeEndArray();
+            }
+        } catch (IOException e) {
+            assert false : "Writing into memory should never fail";
+        }
+        flush();
+        count = 0;
+    }
+
+    private void flush() {
+        try {
+            generator.flush();
+        } catch (IOException e) {
+            assert false : "Writing into memory should never fail";
+        }
+    }
+}
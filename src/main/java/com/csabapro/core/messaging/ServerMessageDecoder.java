@@ -0,0 +1,431 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.result.Result;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Streaming decoder for {@link ServerMessage}s, the client side counterpart of {@link ClientMessageDecoder}.
+ * <p>
+ * Once <code>messageType</code> is read, which the server always writes first, only the fields of that
+ * type are read and everything else is skipped. The fields are read into a {@link CompactServerMessage},
+ * so they can also be handed to a {@link ServerMessageHandler} without building a message at all.
+ */
+public final class ServerMessageDecoder {
+    private static final int MESSAGE_TYPE = 1;
+    private static final int SESSION_ID = 1 << 1;
+    private static final int ERROR_MESSAGE = 1 << 2;
+    private static final int IS_YOUR_TURN = 1 << 3;
+    private static final int GAME_TIME_IN_NS = 1 << 4;
+    private static final int IS_WIN = 1 << 5;
+    private static final int TORPEDO_POS = 1 << 6;
+    private static final int IS_HIT = 1 << 7;
+    private static final int BOARD_SIZE = 1 << 8;
+    private static final int SHIP_SIZES = 1 << 9;
+    private static final int MAX_ALLOWED_HITS = 1 << 10;
+
+    /** Fields of each type indexed by {@link ServerMessageType#getValue()}, all of them are required */
+    private static final int[] FIELDS = new int[ServerMessageType.values().length];
+
+    static {
+        FIELDS[ServerMessageType.Ack.getValue()] = 0;
+        FIELDS[ServerMessageType.GiveSessionId.getValue()] = SESSION_ID;
+        FIELDS[ServerMessageType.GameStart.getValue()] = SESSION_ID | IS_YOUR_TURN | BOARD_SIZE | SHIP_SIZES | MAX_ALLOWED_HITS;
+        FIELDS[ServerMessageType.GameEnd.getValue()] = GAME_TIME_IN_NS | IS_WIN;
+        FIELDS[ServerMessageType.EnemyDisconnected.getValue()] = SESSION_ID;
+        FIELDS[ServerMessageType.TurnChange.getValue()] = SESSION_ID | IS_YOUR_TURN;
+        FIELDS[ServerMessageType.SendTorpedoAck.getValue()] = SESSION_ID | TORPEDO_POS | IS_HIT;
+        FIELDS[ServerMessageType.ReceiveTorpedo.getValue()] = SESSION_ID | TORPEDO_POS;
+    }
+
+    /**
+     * Thrown on input that is valid JSON but does not follow the schema of a {@link ServerMessage}.
+     * It does not capture a stack trace, so malformed input is cheap to reject.
+     */
+    private static final class SchemaException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SchemaException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private ServerMessageDecoder() {}
+
+    public static Result<ServerMessage, ErrorMessage> decode(String input) {
+        CompactServerMessage m = new CompactServerMessage();
+        ErrorMessage error = decodeInto(input, m);
+        return error == null ? Result.Ok(m.toServerMessage()) : Result.Err(error);
+    }
+
+    public static Result<ServerMessage, ErrorMessage> decode(byte[] input, int offset, int length) {
+        CompactServerMessage m = new CompactServerMessage();
+        ErrorMessage error = decodeInto(input, offset, length, m);
+        return error == null ? Result.Ok(m.toServerMessage()) : Result.Err(error);
+    }
+
+    /**
+     * Decodes the remaining bytes of <code>input</code>.
+     * The position of <code>input</code> is only moved to its limit if a message could be decoded.
+     */
+    public static Result<ServerMessage, ErrorMessage> decode(ByteBuffer input) {
+        CompactServerMessage m = new CompactServerMessage();
+        ErrorMessage error = decodeInto(input, m);
+        return error == null ? Result.Ok(m.toServerMessage()) : Result.Err(error);
+    }
+
+    /**
+     * Decodes a single message from the stream, the stream is not closed.
+     * Since the stream can not be read twice the error will not contain the <code>input</code> variable.
+     */
+    public static Result<ServerMessage, ErrorMessage> decode(InputStream input) {
+        CompactServerMessage m = new CompactServerMessage();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(input)) {
+            error = decodeInto(parser, m);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        return error == null ? Result.Ok(m.toServerMessage()) : Result.Err(malformedMessage(error, null));
+    }
+
+    /**
+     * Decodes <code>length</code> bytes starting at <code>offset</code> and calls the method of its type on the handler.
+     * @return null if the handler was called, otherwise why the input is malformed
+     */
+    public static ErrorMessage decode(byte[] input, int offset, int length, ServerMessageHandler handler) {
+        CompactServerMessage m = new CompactServerMessage();
+        ErrorMessage error = decodeInto(input, offset, length, m);
+        if (error == null)
+            dispatch(m, handler);
+        return error;
+    }
+
+    /**
+     * Decodes and calls the method of its type on the handler.
+     * @return null if the handler was called, otherwise why the input is malformed
+     */
+    public static ErrorMessage decode(String input, ServerMessageHandler handler) {
+        CompactServerMessage m = new CompactServerMessage();
+        ErrorMessage error = decodeInto(input, m);
+        if (error == null)
+            dispatch(m, handler);
+        return error;
+    }
+
+    /**
+     * Decodes into a message owned by the caller, which is {@link CompactServerMessage#reset() reset} first.
+     * @return null if <code>into</code> holds a valid message, otherwise why the input is malformed
+     */
+    public static ErrorMessage decodeInto(String input, CompactServerMessage into) {
+        into.reset();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(input)) {
+            error = decodeInto(parser, into);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        return error == null ? null : malformedMessage(error, input);
+    }
+
+    /**
+     * Decodes <code>length</code> bytes starting at <code>offset</code> into a message owned by the caller.
+     * @return null if <code>into</code> holds a valid message, otherwise why the input is malformed
+     */
+    public static ErrorMessage decodeInto(byte[] input, int offset, int length, CompactServerMessage into) {
+        into.reset();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(input, offset, length)) {
+            error = decodeInto(parser, into);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        return error == null ? null : malformedMessage(error, new String(input, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the remaining bytes of <code>input</code> into a message owned by the caller.
+     * The position of <code>input</code> is only moved to its limit if a message could be decoded.
+     * @return null if <code>into</code> holds a valid message, otherwise why the input is malformed
+     */
+    public static ErrorMessage decodeInto(ByteBuffer input, CompactServerMessage into) {
+        if (input.hasArray()) {
+            ErrorMessage error = decodeInto(input.array(), input.arrayOffset() + input.position(), input.remaining(), into);
+            if (error == null)
+                input.position(input.limit());
+            return error;
+        }
+
+        into.reset();
+        String error;
+        try (JsonParser parser = MessageCodec.getFactory().createParser(new ByteBufferBackedInputStream(input.duplicate()))) {
+            error = decodeInto(parser, into);
+        } catch (IOException e) {
+            error = e.getLocalizedMessage();
+        }
+        if (error != null)
+            return malformedMessage(error, MessageCodec.toString(input));
+        input.position(input.limit());
+        return null;
+    }
+
+    /**
+     * Calls the method of the type of a decoded message on the handler
+     */
+    public static void dispatch(CompactServerMessage m, ServerMessageHandler handler) {
+        if (m.errorMessage != null) {
+            handler.onError(m.messageType, m.errorMessage);
+            return;
+        }
+        switch (m.messageType) {
+            case Ack:
+                handler.onAck();
+                break;
+            case GiveSessionId:
+                handler.onGiveSessionId(m.sessionId);
+                break;
+            case GameStart:
+                handler.onGameStart(m.sessionId, m.isYourTurn, m.boardSize, m.shipSizes, m.maxAllowedHits);
+                break;
+            case GameEnd:
+                handler.onGameEnd(m.gameTimeInNs, m.isWin);
+                break;
+            case EnemyDisconnected:
+                handler.onEnemyDisconnected(m.sessionId);
+                break;
+            case TurnChange:
+                handler.onTurnChange(m.sessionId, m.isYourTurn);
+                break;
+            case SendTorpedoAck:
+                handler.onSendTorpedoAck(m.sessionId, m.torpedoPos, m.isHit);
+                break;
+            case ReceiveTorpedo:
+                handler.onReceiveTorpedo(m.sessionId, m.torpedoPos);
+                break;
+            default:
+                assert false : "Unreachable"; // we should never get here
+                break;
+        }
+    }
+
+    /**
+     * Decodes the next JSON object of the parser into <code>m</code>.
+     * @return null if <code>m</code> is a valid message, otherwise the reason why it is malformed
+     * @throws IOException if the input is not valid JSON
+     */
+    private static String decodeInto(JsonParser parser, CompactServerMessage m) throws IOException {
+        int present;
+        try {
+            present = readMessage(parser, m);
+        } catch (SchemaException e) {
+            return e.getMessage();
+        }
+
+        // an error can come with any type, or without one
+        if ((present & ERROR_MESSAGE) != 0)
+            return null;
+        if ((present & MESSAGE_TYPE) == 0)
+            return malformedError(null, "messageType");
+
+        int missing = FIELDS[m.messageType.getValue()] & ~present;
+        if (missing != 0)
+            return malformedError(m.messageType, missingFields(missing));
+        return null;
+    }
+
+    private static int readMessage(JsonParser p, CompactServerMessage m) throws IOException, SchemaException {
+        if (p.nextToken() != JsonToken.START_OBJECT)
+            throw new SchemaException("Expected a JSON object");
+
+        int present = 0;
+        // every field is wanted until the type is known
+        int wanted = -1;
+        String name;
+        while ((name = p.nextFieldName()) != null) {
+            JsonToken t = p.nextToken();
+            int field = fieldOf(name);
+            if ((wanted & field) == 0 || t == JsonToken.VALUE_NULL) {
+                p.skipChildren();
+                continue;
+            }
+            readField(p, t, field, m);
+            present |= field;
+            if (field == MESSAGE_TYPE)
+                wanted = MESSAGE_TYPE | ERROR_MESSAGE | FIELDS[m.messageType.getValue()];
+        }
+        if (p.currentToken() != JsonToken.END_OBJECT)
+            throw new SchemaException("Expected a field name in ServerMessage but got: " + p.currentToken());
+        return present;
+    }
+
+    private static int fieldOf(String name) throws SchemaException {
+        switch (name) {
+            case "messageType":
+                return MESSAGE_TYPE;
+            case "sessionId":
+                return SESSION_ID;
+            case "errorMessage":
+                return ERROR_MESSAGE;
+            case "isYourTurn":
+                return IS_YOUR_TURN;
+            case "gameTimeInNs":
+                return GAME_TIME_IN_NS;
+            case "isWin":
+                return IS_WIN;
+            case "torpedoPos":
+                return TORPEDO_POS;
+            case "isHit":
+                return IS_HIT;
+            case "boardSize":
+                return BOARD_SIZE;
+            case "shipSizes":
+                return SHIP_SIZES;
+            case "maxAllowedHits":
+                return MAX_ALLOWED_HITS;
+            default:
+                throw new SchemaException("Unrecognized field `" + name + "` in ServerMessage");
+        }
+    }
+
+    private static void readField(JsonParser p, JsonToken t, int field, CompactServerMessage m) throws IOException, SchemaException {
+        switch (field) {
+            case MESSAGE_TYPE:
+                m.messageType = readType(p, t);
+                break;
+            case SESSION_ID:
+                if (!t.isScalarValue())
+                    throw new SchemaException("`sessionId` should be a string");
+                m.sessionId = p.getText();
+                break;
+            case ERROR_MESSAGE:
+                m.errorMessage = MessageCodec.ERROR_MESSAGE_READER.readValue(p);
+                break;
+            case IS_YOUR_TURN:
+                m.setYourTurn(readBoolean(t, "isYourTurn"));
+                break;
+            case GAME_TIME_IN_NS:
+                if (t != JsonToken.VALUE_NUMBER_INT)
+                    throw new SchemaException("`gameTimeInNs` should be an integer");
+                m.setGameTimeInNs(p.getLongValue());
+                break;
+            case IS_WIN:
+                m.setWin(readBoolean(t, "isWin"));
+                break;
+            case TORPEDO_POS:
+                m.torpedoPos = readVec2(p, t, "torpedoPos");
+                break;
+            case IS_HIT:
+                m.setHit(readBoolean(t, "isHit"));
+                break;
+            case BOARD_SIZE:
+                m.boardSize = readVec2(p, t, "boardSize");
+                break;
+            case SHIP_SIZES:
+                m.shipSizes = readInts(p, t, "shipSizes");
+                break;
+            case MAX_ALLOWED_HITS:
+                m.setMaxAllowedHits(readInt(p, t, "maxAllowedHits"));
+                break;
+            default:
+                assert false : "Unreachable"; // we should never get here
+                break;
+        }
+    }
+
+    private static ServerMessageType readType(JsonParser p, JsonToken t) throws IOException, SchemaException {
+        ServerMessageType type = null;
+        if (t == JsonToken.VALUE_NUMBER_INT) {
+            type = ServerMessageType.fromValue(p.getIntValue());
+        } else if (t == JsonToken.VALUE_STRING) {
+            String text = p.getText();
+            for (ServerMessageType candidate : ServerMessageType.values()) {
+                if (candidate.toString().equals(text) || Integer.toString(candidate.getValue()).equals(text))
+                    type = candidate;
+            }
+        }
+        if (type == null)
+            throw new SchemaException("`messageType`: " + p.getText() + " is not a ServerMessageType");
+        return type;
+    }
+
+    private static boolean readBoolean(JsonToken t, String field) throws SchemaException {
+        if (t == JsonToken.VALUE_TRUE)
+            return true;
+        if (t == JsonToken.VALUE_FALSE)
+            return false;
+        throw new SchemaException("`" + field + "` should be a boolean");
+    }
+
+    private static int readInt(JsonParser p, JsonToken t, String field) throws IOException, SchemaException {
+        if (t != JsonToken.VALUE_NUMBER_INT)
+            throw new SchemaException("`" + field + "` should be an integer");
+        return p.getIntValue();
+    }
+
+    private static Vec2 readVec2(JsonParser p, JsonToken t, String field) throws IOException, SchemaException {
+        if (t != JsonToken.START_OBJECT)
+            throw new SchemaException("`" + field + "` should be an object with `x` and `y`");
+
+        int x = 0;
+        int y = 0;
+        String name;
+        while ((name = p.nextFieldName()) != null) {
+            JsonToken vt = p.nextToken();
+            switch (name) {
+                case "x":
+                    x = readInt(p, vt, "x");
+                    break;
+                case "y":
+                    y = readInt(p, vt, "y");
+                    break;
+                default:
+                    throw new SchemaException("Unrecognized field `" + name + "` in Vec2");
+            }
+        }
+        return Vec2.of(x, y);
+    }
+
+    private static int[] readInts(JsonParser p, JsonToken t, String field) throws IOException, SchemaException {
+        if (t != JsonToken.START_ARRAY)
+            throw new SchemaException("`" + field + "` should be an array of integers");
+        int[] values = new int[8];
+        int count = 0;
+        JsonToken vt;
+        while ((vt = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count++] = readInt(p, vt, field);
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    private static String missingFields(int missing) {
+        String[] names = { "messageType", "sessionId", "errorMessage", "isYourTurn", "gameTimeInNs", "isWin",
+                "torpedoPos", "isHit", "boardSize", "shipSizes", "maxAllowedHits" };
+        List<String> missingNames = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            if ((missing & (1 << i)) != 0)
+                missingNames.add(names[i]);
+        }
+        return String.join(", ", missingNames);
+    }
+
+    private static String malformedError(ServerMessageType type, String missing) {
+        return "Malformed ServerMessage" + (type == null ? "" : " with type: " + type.toString()) + " did not have `"
+                + missing + "`, but it is required.";
+    }
+
+    private static ErrorMessage malformedMessage(String deserializerMessage, String input) {
+        return MessageCodec.malformedMessage(ServerMessage.class.getSimpleName(), deserializerMessage, input);
+    }
+}
@@ -0,0 +1,37 @@
+package com.csabapro.core.messaging;
+
+import com.csabapro.core.game.Vec2;
+
+/**
+ * Receives decoded {@link ServerMessage}s field by field, without a message object being built.
+ * <p>
+ * Every method does nothing by default, so a client only implements what it reacts to.
+ *
+ * @see ServerMessageDecoder#decode(byte[], int, int, ServerMessageHandler)
+ */
+public interface ServerMessageHandler {
+    default void onAck() {}
+
+    default void onGiveSessionId(String sessionId) {}
+
+    /**
+     * @param shipSizes owned by the handler from now on
+     */
+    default void onGameStart(String sessionId, boolean isYourTurn, Vec2 boardSize, int[] shipSizes, int maxAllowedHits) {}
+
+    default void onGameEnd(long gameTimeInNs, boolean isWin) {}
+
+    default void onEnemyDisconnected(String sessionId) {}
+
+    default void onTurnChange(String sessionId, boolean isYourTurn) {}
+
+    default void onSendTorpedoAck(String sessionId, Vec2 torpedoPos, boolean isHit) {}
+
+    default void onReceiveTorpedo(String sessionId, Vec2 torpedoPos) {}
+
+    /**
+     * The server rejected a message, called instead of the method of the type
+     * @param type the type the error came with, can be null
+     */
+    default void onError(ServerMessageType type, ErrorMessage error) {}
+}
@@ -0,0 +1,206 @@
+package com.csabapro.core.messaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.metrics.Metrics;
+import com.csabapro.core.metrics.MetricsSink;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Pre-rendered JSON of the server messages that only differ in a few fields.
+ * <p>
+ * <code>Ack</code> is always the same bytes, <code>TurnChange</code>, <code>EnemyDisconnected</code> and the
+ * <code>GameStart</code> of one game configuration only differ in <code>sessionId</code> and
+ * <code>isYourTurn</code>. Each of those shapes is rendered once by Jackson with an empty
+ * <code>sessionId</code> and cut around it, so a message costs copying two byte arrays and the id.
+ * The result is byte for byte what {@link ServerMessage#serialize()} produces, any message that does not
+ * match a template is serialized by Jackson instead.
+ */
+public final class ServerMessageTemplates {
+    private static final class Template {
+        final byte[] prefix;
+        final byte[] suffix;
+
+        /**
+         * Renders a sample with an empty <code>sessionId</code>, or without one.
+         */
+        Template(ServerMessage sample) {
+            byte[] json = sample.serialize().getBytes(StandardCharsets.UTF_8);
+            int at = indexOf(json, SESSION_ID_FIELD);
+            if (at < 0) {
+                prefix = json;
+                suffix = new byte[0];
+            } else {
+                // keep the opening quote in the prefix and the closing quote in the suffix
+                int split = at + SESSION_ID_FIELD.length - 1;
+                prefix = Arrays.copyOfRange(json, 0, split);
+                suffix = Arrays.copyOfRange(json, split, json.length);
+            }
+        }
+
+        int length(byte[] sessionId) {
+            return prefix.length + sessionId.length + suffix.length;
+        }
+
+        byte[] render(byte[] sessionId) {
+            byte[] out = new byte[length(sessionId)];
+            System.arraycopy(prefix, 0, out, 0, prefix.length);
+            System.arraycopy(sessionId, 0, out, prefix.length, sessionId.length);
+            System.arraycopy(suffix, 0, out, prefix.length + sessionId.length, suffix.length);
+            return out;
+        }
+
+        int write(byte[] sessionId, ByteBuffer output) {
+            int length = length(sessionId);
+            if (output.remaining() < length)
+                throw new BufferOverflowException();
+            output.put(prefix).put(sessionId).put(suffix);
+            return length;
+        }
+    }
+
+    private static final byte[] SESSION_ID_FIELD = "\"sessionId\":\"\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NO_SESSION_ID = new byte[0];
+    /** Every board configuration gets its own GameStart template, but a server only uses a few */
+    private static final int MAX_GAME_STARTS = 64;
+
+    private static final Template ACK = new Template(ServerMessage.Ack());
+    private static final Template ENEMY_DISCONNECTED = new Template(ServerMessage.EnemyDisconnected(""));
+    private static final Template TURN_CHANGE_YOURS = new Template(ServerMessage.TurnChange("", true));
+    private static final Template TURN_CHANGE_THEIRS = new Template(ServerMessage.TurnChange("", false));
+    /** Keyed by <code>[boardSize, shipSizes, maxAllowedHits]</code>, the yours and theirs variant */
+    private static final ConcurrentHashMap<List<Object>, Template[]> GAME_STARTS = new ConcurrentHashMap<>();
+
+    private ServerMessageTemplates() {}
+
+    /**
+     * @return the UTF-8 encoded JSON of the message
+     */
+    public static byte[] render(ServerMessage message) {
+        Template template = templateOf(message);
+        if (template == null)
+            return message.serialize().getBytes(StandardCharsets.UTF_8);
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        byte[] json = template.render(sessionIdOf(message));
+        metrics.serverMessageEncoded(message.messageType, start);
+        return json;
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON of the message into <code>output</code>, the stream is not closed.
+     */
+    public static void write(ServerMessage message, OutputStream output) throws IOException {
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        Template template = templateOf(message);
+        if (template == null) {
+            MessageCodec.SERVER_MESSAGE_WRITER.writeValue(output, message);
+        } else {
+            byte[] sessionId = sessionIdOf(message);
+            output.write(template.prefix);
+            output.write(sessionId);
+            output.write(template.suffix);
+        }
+        metrics.serverMessageEncoded(message.messageType, start);
+    }
+
+    /**
+     * Writes the UTF-8 encoded JSON of the message into <code>output</code> starting at its position.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if <code>output</code> does not have enough room, its position is left unchanged
+     */
+    public static int write(ServerMessage message, ByteBuffer output) throws IOException {
+        MetricsSink metrics = Metrics.getSink();
+        long start = metrics.startTimer();
+        Template template = templateOf(message);
+        int written = template == null
+                ? MessageCodec.writeValue(MessageCodec.SERVER_MESSAGE_WRITER, message, output)
+                : template.write(sessionIdOf(message), output);
+        metrics.serverMessageEncoded(message.messageType, start);
+        return written;
+    }
+
+    /**
+     * @return the template the message can be rendered with or null if its shape has none
+     */
+    private static Template templateOf(ServerMessage sm) {
+        if (sm.messageType == null || sm.errorMessage != null || sm.gameTimeInNs != null || sm.isWin != null
+                || sm.torpedoPos != null || sm.isHit != null)
+            return null;
+
+        boolean hasConfig = sm.boardSize != null || sm.shipSizes != null || sm.maxAllowedHits != null;
+        switch (sm.messageType) {
+            case Ack:
+                return sm.sessionId == null && sm.isYourTurn == null && !hasConfig ? ACK : null;
+            case EnemyDisconnected:
+                return sm.sessionId != null && sm.isYourTurn == null && !hasConfig ? ENEMY_DISCONNECTED : null;
+            case TurnChange:
+                if (sm.sessionId == null || sm.isYourTurn == null || hasConfig)
+                    return null;
+                return sm.isYourTurn ? TURN_CHANGE_YOURS : TURN_CHANGE_THEIRS;
+            case GameStart:
+                if (sm.sessionId == null || sm.isYourTurn == null || sm.boardSize == null || sm.shipSizes == null
+                        || sm.maxAllowedHits == null)
+                    return null;
+                Template[] templates = gameStartTemplates(sm.boardSize, sm.shipSizes, sm.maxAllowedHits);
+                if (templates == null)
+                    return null;
+                return templates[sm.isYourTurn ? 0 : 1];
+            default:
+                return null;
+        }
+    }
+
+    private static Template[] gameStartTemplates(Vec2 boardSize, List<Integer> shipSizes, Integer maxAllowedHits) {
+        List<Object> key = Arrays.asList(boardSize, shipSizes, maxAllowedHits);
+        Template[] templates = GAME_STARTS.get(key);
+        if (templates != null || GAME_STARTS.size() >= MAX_GAME_STARTS)
+            return templates;
+
+        // the caller may change its list later, the key must not
+        List<Integer> sizes = new ArrayList<>(shipSizes);
+        return GAME_STARTS.computeIfAbsent(Arrays.asList(boardSize, sizes, maxAllowedHits), k -> new Template[] {
+                new Template(ServerMessage.GameStart("", true, boardSize, sizes, maxAllowedHits)),
+                new Template(ServerMessage.GameStart("", false, boardSize, sizes, maxAllowedHits)) });
+    }
+
+    /**
+     * @return the escaped UTF-8 content of the <code>sessionId</code> string, without quotes
+     */
+    private static byte[] sessionIdOf(ServerMessage sm) {
+        String sessionId = sm.sessionId;
+        if (sessionId == null)
+            return NO_SESSION_ID;
+        int length = sessionId.length();
+        byte[] ascii = new byte[length];
+        for (int i = 0; i < length; i++) {
+            char c = sessionId.charAt(i);
+            if (c < 0x20 || c >= 0x7f || c == '"' || c == '\\')
+                return JsonStringEncoder.getInstance().quoteAsUTF8(sessionId);
+            ascii[i] = (byte) c;
+        }
+        return ascii;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -27,8 +27,14 @@ public enum ServerMessageType {
     ReceiveTorpedo;
 
     public static int ServerMessageTypeCount = 0; 
+    private static final ServerMessageType[] byValue = new ServerMessageType[values().length];
     private int value;
 
+    static {
+        for (ServerMessageType type : values())
+            byValue[type.value] = type;
+    }
+
     private int inc() {
         return ServerMessageTypeCount++;
     }
@@ -41,4 +47,12 @@ public enum ServerMessageType {
     public int getValue() {
         return value;
     }
+
+    /**
+     * @param value the value returned by {@link #getValue()}
+     * @return the type with the given value or null if there is no such type
+     */
+    public static ServerMessageType fromValue(int value) {
+        return value >= 0 && value < byValue.length ? byValue[value] : null;
+    }
 }
@@ -0,0 +1,27 @@
+package com.csabapro.core.messaging;
+
+/**
+ * The encoding of the messages exchanged in a session.
+ * <p>
+ * Every connection starts out with {@link #Json}. A client asks for {@link #Binary} by setting
+ * {@link ClientMessage#wireFormat} in its <code>CreateSession</code> or <code>JoinSession</code>
+ * message. The reply to that message is still JSON, every message after it is sent in the requested format.
+ */
+public enum WireFormat {
+    /** UTF-8 encoded JSON, see {@link ClientMessage#serialize()} and {@link ServerMessage#serialize()} */
+    Json,
+    /** Compact binary frames, see {@link BinaryCodec} */
+    Binary;
+
+    /** First byte of the UTF-8 byte order mark, no binary tag is that byte */
+    private static final byte UTF8_BOM_START = (byte) 0xef;
+
+    /**
+     * Tells the format of a frame from its first byte.
+     * Binary frames always start with a tag that has the high bit set. JSON text only does when it starts with
+     * a UTF-8 byte order mark, which is still detected as JSON, the JSON parser skips the mark.
+     */
+    public static WireFormat detect(byte firstByte) {
+        return (firstByte & BinaryCodec.TAG_MARKER) != 0 && firstByte != UTF8_BOM_START ? Binary : Json;
+    }
+}
@@ -0,0 +1,22 @@
+package com.csabapro.core.metrics;
+
+/**
+ * Holds the {@link MetricsSink} of the library, {@link MetricsSink#NOOP} until another one is set.
+ */
+public final class Metrics {
+    private static volatile MetricsSink sink = MetricsSink.NOOP;
+
+    private Metrics() {}
+
+    public static MetricsSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Sessions keep the sink they were created with, decoding and encoding switch to it right away
+     * @param sink null to disable metrics
+     */
+    public static void setSink(MetricsSink sink) {
+        Metrics.sink = sink == null ? MetricsSink.NOOP : sink;
+    }
+}
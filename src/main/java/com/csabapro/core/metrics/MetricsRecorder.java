@@ -0,0 +1,129 @@
+package com.csabapro.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.ErrorCode;
+import com.csabapro.core.messaging.ServerMessageType;
+
+/**
+ * A {@link MetricsSink} that keeps counters and {@link LatencyHistogram}s per message type and error code.
+ * <p>
+ * Counters are {@link LongAdder}s, so threads recording at the same time do not contend on one value.
+ * Every counter and histogram is created up front and indexed by the ordinal of its type, recording
+ * allocates nothing.
+ */
+public final class MetricsRecorder implements MetricsSink {
+    private final LongAdder[] decoded = adders(ClientMessageType.values().length);
+    /** Indexed by the ordinal of the type, the last one is for input without a readable type */
+    private final LongAdder[] malformed = adders(ClientMessageType.values().length + 1);
+    /** Indexed by the ordinal of the type, the last one is for messages without a type, e.g. a lone error */
+    private final LongAdder[] encoded = adders(ServerMessageType.values().length + 1);
+    private final LongAdder[] errors = adders(ErrorCode.values().length);
+    private final LatencyHistogram[] decodeLatency = histograms(ClientMessageType.values().length + 1);
+    private final LatencyHistogram[] encodeLatency = histograms(ServerMessageType.values().length + 1);
+    private final LatencyHistogram[] handleLatency = histograms(ClientMessageType.values().length);
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static LatencyHistogram[] histograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < count; i++)
+            histograms[i] = new LatencyHistogram();
+        return histograms;
+    }
+
+    private static int indexOf(ClientMessageType type) {
+        return type == null ? ClientMessageType.values().length : type.ordinal();
+    }
+
+    private static int indexOf(ServerMessageType type) {
+        return type == null ? ServerMessageType.values().length : type.ordinal();
+    }
+
+    @Override
+    public long startTimer() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void clientMessageDecoded(ClientMessageType type, boolean malformed, long start) {
+        long elapsed = System.nanoTime() - start;
+        if (malformed)
+            this.malformed[indexOf(type)].increment();
+        else
+            decoded[type.ordinal()].increment();
+        decodeLatency[indexOf(type)].record(elapsed);
+    }
+
+    @Override
+    public void serverMessageEncoded(ServerMessageType type, long start) {
+        long elapsed = System.nanoTime() - start;
+        encoded[indexOf(type)].increment();
+        encodeLatency[indexOf(type)].record(elapsed);
+    }
+
+    @Override
+    public void clientMessageHandled(ClientMessageType type, long start) {
+        handleLatency[type.ordinal()].record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void errorSent(ErrorCode code) {
+        errors[code.ordinal()].increment();
+    }
+
+    public long getDecoded(ClientMessageType type) {
+        return decoded[type.ordinal()].sum();
+    }
+
+    /**
+     * @param type null for input whose type could not be read
+     */
+    public long getMalformed(ClientMessageType type) {
+        return malformed[indexOf(type)].sum();
+    }
+
+    /**
+     * @param type null for messages without a type
+     */
+    public long getEncoded(ServerMessageType type) {
+        return encoded[indexOf(type)].sum();
+    }
+
+    /**
+     * @return the number of errors sent by sessions with the code, <code>MalformedMessage</code> errors of
+     * the decoder are counted by {@link #getMalformed(ClientMessageType)}
+     */
+    public long getErrors(ErrorCode code) {
+        return errors[code.ordinal()].sum();
+    }
+
+    /**
+     * @param type null for input whose type could not be read
+     * @return nanoseconds spent decoding, malformed input included
+     */
+    public LatencyHistogram getDecodeLatency(ClientMessageType type) {
+        return decodeLatency[indexOf(type)];
+    }
+
+    /**
+     * @param type null for messages without a type
+     * @return nanoseconds spent encoding
+     */
+    public LatencyHistogram getEncodeLatency(ServerMessageType type) {
+        return encodeLatency[indexOf(type)];
+    }
+
+    /**
+     * @return nanoseconds from submitting a message to a session until the session handled it
+     */
+    public LatencyHistogram getHandleLatency(ClientMessageType type) {
+        return handleLatency[type.ordinal()];
+    }
+}
@@ -0,0 +1,51 @@
+package com.csabapro.core.metrics;
+
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.ErrorCode;
+import com.csabapro.core.messaging.ServerMessageType;
+
+/**
+ * Receives measurements from the hot paths of the library.
+ * <p>
+ * A measured path asks for {@link #startTimer()} first and hands the result back when it is done,
+ * so a sink that does not measure time never reads the clock. Every method does nothing by default,
+ * which makes {@link #NOOP} free once the JIT inlines it. Methods can be called from any thread.
+ *
+ * @see Metrics#setSink(MetricsSink)
+ * @see MetricsRecorder
+ */
+public interface MetricsSink {
+    /** Records nothing, the default sink */
+    MetricsSink NOOP = new MetricsSink() {};
+
+    /**
+     * @return the start of a measurement, passed back to the method the measurement ends in
+     */
+    default long startTimer() {
+        return 0;
+    }
+
+    /**
+     * A {@link com.csabapro.core.messaging.ClientMessage} was decoded
+     * @param type the type read from the input, null if it could not be read
+     * @param malformed whether the input was rejected with a <code>MalformedMessage</code> error
+     */
+    default void clientMessageDecoded(ClientMessageType type, boolean malformed, long start) {}
+
+    /**
+     * A {@link com.csabapro.core.messaging.ServerMessage} was encoded
+     * @param type null for a message without a type, e.g. one that only carries an error
+     */
+    default void serverMessageEncoded(ServerMessageType type, long start) {}
+
+    /**
+     * A {@link com.csabapro.core.session.GameSession} handled a message, <code>start</code> was taken when it
+     * was submitted, so the time includes the wait in the mailbox and the answers sent, e.g. <code>TurnChange</code>
+     */
+    default void clientMessageHandled(ClientMessageType type, long start) {}
+
+    /**
+     * A {@link com.csabapro.core.session.GameSession} rejected a message with an error
+     */
+    default void errorSent(ErrorCode code) {}
+}
@@ -0,0 +1,342 @@
+package com.csabapro.core.replay;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.csabapro.core.game.Board;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.messaging.ServerMessage;
+import com.csabapro.core.messaging.ServerMessageType;
+import com.csabapro.core.session.GameRules;
+import com.csabapro.core.session.GameSession;
+import com.csabapro.core.session.SessionListener;
+
+/**
+ * Append-only, memory-mapped log of the joins and accepted moves of any number of sessions.
+ * <p>
+ * Every session is recorded through the {@link SessionListener} returned by {@link #record}. It encodes the
+ * moves of its session into compact binary records, see {@link Records}, and every few moves it also writes a
+ * snapshot of both boards. Appending a record only copies its bytes into the mapped file, so the sessions
+ * are not slowed down by disk writes. The next segment is mapped ahead of time and a full segment is forced
+ * to disk by a background thread, the appending threads never wait for a disk sync.
+ * <p>
+ * The log is read back by {@link EventLogReader} and replayed by {@link Replayer}.
+ */
+public final class EventLog implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 32;
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final int snapshotInterval;
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    /** Forces full segments to disk and maps the next one, so appends never wait on either */
+    private final ExecutorService syncer;
+
+    // guarded by this
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    /** The segment after the current one, mapped ahead by the syncer, null until it is ready */
+    private MappedByteBuffer nextSegment;
+
+    private EventLog(FileChannel channel, int segmentSize, int snapshotInterval) throws IOException {
+        this.channel = channel;
+        this.segmentSize = segmentSize;
+        this.snapshotInterval = snapshotInterval;
+        this.segmentStart = 0;
+        this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(Records.MAGIC).putInt(Records.VERSION).putInt(segmentSize).putInt(0);
+        this.syncer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "event-log-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.execute(() -> mapAhead(segmentSize));
+    }
+
+    /**
+     * Creates a new log, the file must not exist yet
+     */
+    public static EventLog create(Path file) throws IOException {
+        return create(file, DEFAULT_SEGMENT_SIZE, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Creates a new log, the file must not exist yet
+     * @param segmentSize the number of bytes mapped at a time, no record can be larger
+     * @param snapshotInterval the number of moves of a session between two snapshots of its boards
+     */
+    public static EventLog create(Path file, int segmentSize, int snapshotInterval) throws IOException {
+        if (segmentSize < 1024)
+            throw new IllegalArgumentException("Segment size must be at least 1024, got: " + segmentSize);
+        if (snapshotInterval <= 0)
+            throw new IllegalArgumentException("Snapshot interval must be positive, got: " + snapshotInterval);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new EventLog(channel, segmentSize, snapshotInterval);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts recording a session. The returned listener has to be the listener of the session,
+     * it records the moves and forwards everything to <code>delegate</code>.
+     */
+    public SessionListener record(String sessionId, boolean isPrivate, GameRules rules, SessionListener delegate) {
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        SessionRecorder recorder = new SessionRecorder(sessionCount.getAndIncrement(), rules, delegate, id.length);
+        recorder.writeSession(id, isPrivate);
+        return recorder;
+    }
+
+    /**
+     * Writes the mapped pages of the current segment back to the file, the calling thread waits for the disk
+     * but appends go on meanwhile
+     */
+    public void flush() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            current = segment;
+        }
+        current.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            segment.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Copies the body of a record, from position to limit, into the log
+     */
+    private void append(ByteBuffer body) {
+        int length = body.remaining();
+        int total = Records.varIntSize(length) + length;
+        if (total > segmentSize)
+            throw new IllegalArgumentException("Record of " + total + " bytes does not fit in a segment");
+        MappedByteBuffer full = null;
+        long next = 0;
+        synchronized (this) {
+            if (segment.remaining() < total) {
+                full = segment;
+                segmentStart += segmentSize;
+                next = segmentStart + segmentSize;
+                if (nextSegment != null) {
+                    segment = nextSegment;
+                    nextSegment = null;
+                } else {
+                    // the syncer fell behind, only now does an append wait for a mapping
+                    segment = map(segmentStart);
+                }
+            }
+            Records.writeVarInt(segment, length);
+            segment.put(body);
+        }
+        if (full != null) {
+            MappedByteBuffer written = full;
+            long ahead = next;
+            try {
+                syncer.execute(() -> {
+                    written.force();
+                    mapAhead(ahead);
+                });
+            } catch (RejectedExecutionException e) {
+                // the log is closing, this thread is outside the lock so it can wait for the disk itself
+                written.force();
+            }
+        }
+    }
+
+    /**
+     * Maps the segment starting at <code>start</code> as the next one, called by the syncer
+     */
+    private void mapAhead(long start) {
+        MappedByteBuffer mapped;
+        try {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize);
+        } catch (IOException e) {
+            // an append maps it when it needs it and reports the failure then
+            return;
+        }
+        synchronized (this) {
+            if (segmentStart + segmentSize == start)
+                nextSegment = mapped;
+        }
+    }
+
+    private MappedByteBuffer map(long start) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes the moves of one session, it is only called by the thread draining the session
+     */
+    private final class SessionRecorder implements SessionListener {
+        private final int sessionNumber;
+        private final GameRules rules;
+        private final SessionListener delegate;
+        private final ByteBuffer buffer;
+        /** The boards as of the last recorded move, only kept to take snapshots */
+        private final Board[] boards = new Board[2];
+        private long lastTimestamp = 0;
+        private int movesSinceSnapshot = 0;
+
+        SessionRecorder(int sessionNumber, GameRules rules, SessionListener delegate, int sessionIdLength) {
+            this.sessionNumber = sessionNumber;
+            this.rules = rules;
+            this.delegate = delegate;
+            for (int player = GameSession.HOST; player <= GameSession.GUEST; player++)
+                boards[player] = new Board(rules.getBoardSize(), rules.getMaxAllowedHits());
+
+            Vec2 size = rules.getBoardSize();
+            int words = (size.x * size.y + 63) >>> 6;
+            int ships = rules.getShipSizes().size();
+            // enough for the session record and for a snapshot, the largest records of a session
+            int sessionRecord = sessionIdLength + ships * 5;
+            int snapshot = 2 * (5 + ships * 15 + 5 + words * 8);
+            this.buffer = ByteBuffer.allocate(64 + Math.max(sessionRecord, snapshot));
+        }
+
+        void writeSession(byte[] id, boolean isPrivate) {
+            start(RecordType.Session);
+            buffer.put((byte) (isPrivate ? 1 : 0));
+            Records.writeVarInt(buffer, id.length);
+            buffer.put(id);
+            Records.writeVarInt(buffer, rules.getBoardSize().x);
+            Records.writeVarInt(buffer, rules.getBoardSize().y);
+            Records.writeVarInt(buffer, rules.getShipSizes().size());
+            for (int shipSize : rules.getShipSizes())
+                Records.writeVarInt(buffer, shipSize);
+            finish();
+        }
+
+        @Override
+        public void onShipPlaced(int player, Ship ship, long timestamp) {
+            boards[player].placeShip(new Ship(ship.getStartPos(), ship.getOrientation(), ship.getSize()));
+            start(RecordType.PlaceShip);
+            writeTimestamp(timestamp);
+            Records.writeVarInt(buffer, player);
+            writeShip(ship);
+            finish();
+            moved(timestamp);
+            delegate.onShipPlaced(player, ship, timestamp);
+        }
+
+        @Override
+        public void onTorpedoFired(int player, Vec2 torpedoPos, long timestamp) {
+            boards[1 - player].fireTorpedo(torpedoPos);
+            start(RecordType.Torpedo);
+            writeTimestamp(timestamp);
+            Records.writeVarInt(buffer, player);
+            Records.writeVarInt(buffer, torpedoPos.x);
+            Records.writeVarInt(buffer, torpedoPos.y);
+            finish();
+            moved(timestamp);
+            delegate.onTorpedoFired(player, torpedoPos, timestamp);
+        }
+
+        @Override
+        public void onMessage(int player, ServerMessage message) {
+            // a session without a guest sends nothing, so the game starting is the join
+            if (player == GameSession.HOST && message.messageType == ServerMessageType.GameStart) {
+                start(RecordType.Join);
+                finish();
+            }
+            delegate.onMessage(player, message);
+        }
+
+        @Override
+        public void onError(int player, ErrorMessage error) {
+            delegate.onError(player, error);
+        }
+
+        @Override
+        public void onFlush() {
+            delegate.onFlush();
+        }
+
+        private void moved(long timestamp) {
+            if (++movesSinceSnapshot < snapshotInterval)
+                return;
+            movesSinceSnapshot = 0;
+            start(RecordType.Snapshot);
+            // not a delta, the moves after the snapshot can be read without the ones before it
+            Records.writeVarLong(buffer, Records.zigzag(timestamp));
+            lastTimestamp = timestamp;
+            for (Board board : boards) {
+                Records.writeVarInt(buffer, board.getShipCount());
+                for (int i = 0; i < board.getShipCount(); i++)
+                    writeShip(board.getShip(i));
+                writeFired(board);
+            }
+            finish();
+        }
+
+        private void start(RecordType type) {
+            buffer.clear();
+            buffer.put(type.getTag());
+            Records.writeVarInt(buffer, sessionNumber);
+        }
+
+        private void finish() {
+            buffer.flip();
+            append(buffer);
+        }
+
+        private void writeTimestamp(long timestamp) {
+            Records.writeVarLong(buffer, Records.zigzag(timestamp - lastTimestamp));
+            lastTimestamp = timestamp;
+        }
+
+        private void writeShip(Ship ship) {
+            Records.writeVarInt(buffer, ship.getStartPos().x);
+            Records.writeVarInt(buffer, ship.getStartPos().y);
+            Records.writeVarInt(buffer, ship.getSize() << 1 | ship.getOrientation().ordinal());
+        }
+
+        private void writeFired(Board board) {
+            int cells = board.getWidth() * board.getHeight();
+            int words = (cells + 63) >>> 6;
+            Records.writeVarInt(buffer, words);
+            for (int word = 0; word < words; word++) {
+                long bits = 0;
+                for (int bit = 0; bit < 64 && (word << 6) + bit < cells; bit++) {
+                    int cell = (word << 6) + bit;
+                    if (board.isFiredAt(cell % board.getWidth(), cell / board.getWidth()))
+                        bits |= 1L << bit;
+                }
+                buffer.putLong(bits);
+            }
+        }
+    }
+}
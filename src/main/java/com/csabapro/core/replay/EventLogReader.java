@@ -0,0 +1,383 @@
+package com.csabapro.core.replay;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.csabapro.core.game.Board;
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.session.GameRules;
+import com.csabapro.core.session.GameSession;
+
+/**
+ * Reads the records of an {@link EventLog} one after the other.
+ * <p>
+ * The reader is a cursor: {@link #next()} moves to the next record and the getters describe the current one,
+ * so reading a log allocates nothing per move. The log can be read while it is still being written, a log
+ * cut off by a crash ends at its last complete record.
+ * <p>
+ * To recover a session without reading all of its moves, {@link #findRecoveryPoint} finds its last snapshot
+ * by skipping over the bodies of the records, and {@link #seek} goes back to it.
+ */
+public final class EventLogReader implements AutoCloseable {
+    /** {@link Orientation#values()} copies the array on every call */
+    private static final Orientation[] ORIENTATIONS = Orientation.values();
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int segmentSize;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+
+    private final List<String> sessionIds = new ArrayList<>();
+    private final List<Boolean> privateSessions = new ArrayList<>();
+    private final List<GameRules> sessionRules = new ArrayList<>();
+    private long[] lastTimestamps = new long[16];
+
+    // the current record
+    /** Position of the record in {@link #segment} */
+    private int recordStart;
+    private RecordType type;
+    private int sessionNumber;
+    private long timestamp;
+    private int player;
+    private int x;
+    private int y;
+    private int size;
+    private Orientation orientation;
+    private int snapshotStart;
+
+    private EventLogReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(Records.HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {}
+        header.flip();
+        if (header.remaining() < Records.HEADER_SIZE || header.getInt() != Records.MAGIC)
+            throw new IOException("Not an event log");
+        int version = header.getInt();
+        if (version != Records.VERSION)
+            throw new IOException("Unsupported event log version: " + version);
+        this.segmentSize = header.getInt();
+        this.segmentStart = 0;
+        this.segment = map(0);
+        segment.position(Records.HEADER_SIZE);
+    }
+
+    public static EventLogReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new EventLogReader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer map(long start) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, fileSize - start));
+    }
+
+    /**
+     * Moves to the next record
+     * @return false at the end of the log
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int length = segment.hasRemaining() ? segment.get(segment.position()) : 0;
+            if (length != 0 && readRecord(false))
+                return true;
+            if (length != 0)
+                return false;
+            // the rest of the segment is empty, the log either ends here or goes on in the next segment
+            if (!nextSegment())
+                return false;
+        }
+    }
+
+    /**
+     * @return false if the record is cut off or unknown, the position is left at its start
+     */
+    private boolean readRecord(boolean headerOnly) {
+        int start = segment.position();
+        try {
+            int length = Records.readVarInt(segment);
+            int end = segment.position() + length;
+            if (length <= 0 || end > segment.limit()) {
+                segment.position(start);
+                return false;
+            }
+            RecordType recordType = RecordType.fromTag(segment.get());
+            if (recordType == null) {
+                segment.position(start);
+                return false;
+            }
+            recordStart = start;
+            type = recordType;
+            sessionNumber = Records.readVarInt(segment);
+            if (headerOnly && type != RecordType.Session) {
+                segment.position(end);
+                return true;
+            }
+            switch (type) {
+                case Session:
+                    readSession();
+                    break;
+                case PlaceShip:
+                    readTimestamp();
+                    player = Records.readVarInt(segment);
+                    readShip();
+                    break;
+                case Torpedo:
+                    readTimestamp();
+                    player = Records.readVarInt(segment);
+                    x = Records.readVarInt(segment);
+                    y = Records.readVarInt(segment);
+                    break;
+                case Snapshot:
+                    timestamp = Records.unzigzag(Records.readVarLong(segment));
+                    setLastTimestamp(timestamp);
+                    snapshotStart = segment.position();
+                    break;
+                case Join:
+                    break;
+                default:
+                    assert false : "Unreachable"; // we should never get here
+                    break;
+            }
+            segment.position(end);
+            return true;
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            segment.position(start);
+            return false;
+        }
+    }
+
+    private void readSession() {
+        boolean isPrivate = (segment.get() & 1) != 0;
+        byte[] id = new byte[Records.readVarInt(segment)];
+        segment.get(id);
+        int width = Records.readVarInt(segment);
+        int height = Records.readVarInt(segment);
+        Integer[] shipSizes = new Integer[Records.readVarInt(segment)];
+        for (int i = 0; i < shipSizes.length; i++)
+            shipSizes[i] = Records.readVarInt(segment);
+
+        while (sessionIds.size() <= sessionNumber) {
+            sessionIds.add(null);
+            privateSessions.add(null);
+            sessionRules.add(null);
+        }
+        sessionIds.set(sessionNumber, new String(id, StandardCharsets.UTF_8));
+        privateSessions.set(sessionNumber, isPrivate);
+        sessionRules.set(sessionNumber, new GameRules(new Vec2(width, height), Arrays.asList(shipSizes)));
+        // the first move of a session is a delta from 0
+        setLastTimestamp(0);
+    }
+
+    private void readTimestamp() {
+        long last = sessionNumber < lastTimestamps.length ? lastTimestamps[sessionNumber] : 0;
+        timestamp = last + Records.unzigzag(Records.readVarLong(segment));
+        setLastTimestamp(timestamp);
+    }
+
+    private void setLastTimestamp(long value) {
+        if (sessionNumber >= lastTimestamps.length)
+            lastTimestamps = Arrays.copyOf(lastTimestamps, Math.max(sessionNumber + 1, lastTimestamps.length * 2));
+        lastTimestamps[sessionNumber] = value;
+    }
+
+    /**
+     * @return the position of the current record in the file, see {@link #seek(long)}
+     */
+    public long getPosition() {
+        return segmentStart + recordStart;
+    }
+
+    /**
+     * Moves back or forward, the next call to {@link #next()} reads the record at <code>position</code>
+     * @param position the position of a record, from {@link #getPosition()} or {@link #findRecoveryPoint}
+     */
+    public void seek(long position) throws IOException {
+        if (position < Records.HEADER_SIZE || position >= fileSize)
+            throw new IllegalArgumentException("Not a record position: " + position);
+        long start = position - position % segmentSize;
+        if (start != segmentStart) {
+            segment = map(start);
+            segmentStart = start;
+        }
+        segment.position((int) (position - start));
+    }
+
+    /**
+     * Skips to the end of the log, only decoding the Session records, to find where a session can be
+     * recovered from
+     * @return the position of the last snapshot of the session, or of its Session record if it has no
+     * snapshot yet, -1 if the log has no such session
+     */
+    public long findRecoveryPoint(String sessionId) throws IOException {
+        int number = -1;
+        long point = -1;
+        while (nextHeader()) {
+            if (type == RecordType.Session && getSessionId().equals(sessionId)) {
+                number = sessionNumber;
+                point = getPosition();
+            } else if (type == RecordType.Snapshot && sessionNumber == number) {
+                point = getPosition();
+            }
+        }
+        return point;
+    }
+
+    /**
+     * Like {@link #next()}, but only the type and the session number of records other than Session are read
+     */
+    private boolean nextHeader() throws IOException {
+        while (true) {
+            int length = segment.hasRemaining() ? segment.get(segment.position()) : 0;
+            if (length != 0)
+                return readRecord(true);
+            if (!nextSegment())
+                return false;
+        }
+    }
+
+    /**
+     * Moves to the next segment, the rest of the current one is empty
+     * @return false if the log ends here
+     */
+    private boolean nextSegment() throws IOException {
+        long nextStart = segmentStart + segmentSize;
+        if (nextStart >= fileSize)
+            return false;
+        MappedByteBuffer mapped = map(nextStart);
+        if (!mapped.hasRemaining() || mapped.get(0) == 0)
+            return false;
+        segment = mapped;
+        segmentStart = nextStart;
+        return true;
+    }
+
+    private void readShip() {
+        x = Records.readVarInt(segment);
+        y = Records.readVarInt(segment);
+        int sizeAndOrientation = Records.readVarInt(segment);
+        size = sizeAndOrientation >>> 1;
+        orientation = ORIENTATIONS[sizeAndOrientation & 1];
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    /**
+     * @return the number the log gave the session of the record, they count up from 0
+     */
+    public int getSessionNumber() {
+        return sessionNumber;
+    }
+
+    public String getSessionId() {
+        return sessionIds.get(sessionNumber);
+    }
+
+    public boolean isPrivate() {
+        return privateSessions.get(sessionNumber);
+    }
+
+    public GameRules getRules() {
+        return sessionRules.get(sessionNumber);
+    }
+
+    /**
+     * @return the timestamp of a move or snapshot, read from the clock of its session
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the player who made the move
+     */
+    public int getPlayer() {
+        return player;
+    }
+
+    /**
+     * @return the start position of a placed ship or the position of a torpedo
+     */
+    public Vec2 getPos() {
+        return Vec2.of(x, y);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return a new ship from a PlaceShip record
+     */
+    public Ship getShip() {
+        return new Ship(Vec2.of(x, y), orientation, size);
+    }
+
+    /**
+     * @return the boards of both players from a Snapshot record, indexed by player
+     */
+    public Board[] getSnapshot() {
+        ByteBuffer src = segment.duplicate();
+        src.position(snapshotStart);
+        GameRules rules = getRules();
+        Board[] boards = new Board[2];
+        for (int p = GameSession.HOST; p <= GameSession.GUEST; p++) {
+            Board board = new Board(rules.getBoardSize(), rules.getMaxAllowedHits());
+            int ships = Records.readVarInt(src);
+            for (int i = 0; i < ships; i++) {
+                int sx = Records.readVarInt(src);
+                int sy = Records.readVarInt(src);
+                int sizeAndOrientation = Records.readVarInt(src);
+                board.placeShip(new Ship(Vec2.of(sx, sy), ORIENTATIONS[sizeAndOrientation & 1], sizeAndOrientation >>> 1));
+            }
+            int words = Records.readVarInt(src);
+            int cells = board.getWidth() * board.getHeight();
+            for (int word = 0; word < words; word++) {
+                long bits = src.getLong();
+                while (bits != 0) {
+                    int cell = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (cell < cells)
+                        board.fireTorpedo(cell % board.getWidth(), cell / board.getWidth());
+                }
+            }
+            boards[p] = board;
+        }
+        return boards;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
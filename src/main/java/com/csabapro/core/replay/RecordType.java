@@ -0,0 +1,33 @@
+package com.csabapro.core.replay;
+
+/**
+ * The kind of a record in an {@link EventLog}
+ */
+public enum RecordType {
+    /** A session was created, it carries the session id and the rules */
+    Session,
+    /** A ship placement was accepted */
+    PlaceShip,
+    /** A torpedo was accepted */
+    Torpedo,
+    /** The boards of both players of a session */
+    Snapshot,
+    /** The guest joined a session and the game started */
+    Join;
+
+    private static final RecordType[] byTag = values();
+
+    /**
+     * @return the byte the record starts with, 0 is never a tag
+     */
+    byte getTag() {
+        return (byte) (ordinal() + 1);
+    }
+
+    /**
+     * @return the type of the tag or null if it is not a tag
+     */
+    static RecordType fromTag(int tag) {
+        return tag >= 1 && tag <= byTag.length ? byTag[tag - 1] : null;
+    }
+}
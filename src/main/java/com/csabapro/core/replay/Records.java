@@ -0,0 +1,92 @@
+package com.csabapro.core.replay;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout shared by {@link EventLog} and {@link EventLogReader}.
+ * <p>
+ * A log starts with a header of {@link #HEADER_SIZE} bytes: magic, version and segment size. Records follow as
+ * the varint length of their body and the body, which starts with the {@link RecordType} tag and the varint
+ * number of the session. Records never cross a segment boundary, the rest of a segment that can not fit the
+ * next record is left zero, and a zero length is never a record.
+ * <p>
+ * Bodies per type, integers are varints, timestamps are the zigzag delta from the previous timestamp of
+ * the same session. A snapshot holds its timestamp as is, so a reader can start at a snapshot and follow
+ * the deltas of the moves after it:
+ * <ul>
+ *  <li>Session: flags (bit0 private), sessionId length and UTF-8 bytes, board width, board height, ship count, ship sizes</li>
+ *  <li>PlaceShip: timestamp, player, x, y, size &lt;&lt; 1 | orientation ordinal</li>
+ *  <li>Torpedo: timestamp, player, x, y</li>
+ *  <li>Snapshot: timestamp, then per player the ship count, every ship like in PlaceShip,
+ *  the number of words of fired cells and the words as 8 byte longs</li>
+ *  <li>Join: empty</li>
+ * </ul>
+ */
+final class Records {
+    static final int MAGIC = 0x4253484c;
+    static final int VERSION = 3;
+    static final int HEADER_SIZE = 16;
+
+    private Records() {}
+
+    static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static void writeVarInt(ByteBuffer dst, int value) {
+        while ((value & ~0x7f) != 0) {
+            dst.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    static void writeVarLong(ByteBuffer dst, long value) {
+        while ((value & ~0x7fL) != 0) {
+            dst.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @throws java.nio.BufferUnderflowException if the varint is cut off
+     */
+    static int readVarInt(ByteBuffer src) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = src.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("Varint is longer than 5 bytes");
+    }
+
+    /**
+     * @throws java.nio.BufferUnderflowException if the varint is cut off
+     */
+    static long readVarLong(ByteBuffer src) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = src.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("Varint is longer than 10 bytes");
+    }
+}
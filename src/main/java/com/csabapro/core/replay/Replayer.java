@@ -0,0 +1,130 @@
+package com.csabapro.core.replay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.csabapro.core.game.Board;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.session.GameSession;
+import com.csabapro.core.session.SessionListener;
+
+/**
+ * Plays the sessions of an {@link EventLog} again.
+ * <p>
+ * Every recorded session is rebuilt as a {@link GameSession} whose clock returns the recorded timestamps,
+ * so the replayed sessions send the same {@link com.csabapro.core.messaging.ServerMessage}s as the recorded
+ * ones did, <code>gameTimeInNs</code> included. To send every message a replay has to run every move, so it
+ * skips the snapshots, {@link #restoreBoards} starts from the last one instead.
+ */
+public final class Replayer {
+    private final Function<String, SessionListener> listeners;
+    private final List<GameSession> sessions = new ArrayList<>();
+    private final Map<String, GameSession> sessionsById = new HashMap<>();
+    private long now = 0;
+
+    /**
+     * @param listeners gives the listener of a replayed session from its id
+     */
+    public Replayer(Function<String, SessionListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Replays the records of <code>reader</code> up to the end of the log
+     * @return the number of replayed moves
+     */
+    public int replay(EventLogReader reader) throws IOException {
+        int moves = 0;
+        while (reader.next()) {
+            int number = reader.getSessionNumber();
+            switch (reader.getType()) {
+                case Session: {
+                    String id = reader.getSessionId();
+                    GameSession session = new GameSession(id, reader.isPrivate(), reader.getRules(),
+                            listeners.apply(id), () -> now);
+                    while (sessions.size() <= number)
+                        sessions.add(null);
+                    sessions.set(number, session);
+                    sessionsById.put(id, session);
+                    break;
+                }
+                case PlaceShip:
+                    now = reader.getTimestamp();
+                    sessions.get(number).submit(reader.getPlayer(),
+                            ClientMessage.PlaceShip(reader.getSessionId(), reader.getShip()));
+                    moves++;
+                    break;
+                case Torpedo:
+                    now = reader.getTimestamp();
+                    sessions.get(number).submit(reader.getPlayer(),
+                            ClientMessage.SendTorpedo(reader.getSessionId(), reader.getPos()));
+                    moves++;
+                    break;
+                case Join:
+                    sessions.get(number).join();
+                    break;
+                case Snapshot:
+                    break;
+                default:
+                    assert false : "Unreachable"; // we should never get here
+                    break;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * @return the replayed session or null if the log had no such session
+     */
+    public GameSession getSession(String sessionId) {
+        return sessionsById.get(sessionId);
+    }
+
+    /**
+     * Rebuilds the boards of a session as of the end of the log, without running a session: the reader seeks
+     * to the last snapshot of the session and only the moves after it are applied
+     * @return the boards indexed by player or null if the log had no such session
+     */
+    public static Board[] restoreBoards(EventLogReader reader, String sessionId) throws IOException {
+        long recoveryPoint = reader.findRecoveryPoint(sessionId);
+        if (recoveryPoint < 0)
+            return null;
+        reader.seek(recoveryPoint);
+        if (!reader.next())
+            return null;
+        int number = reader.getSessionNumber();
+        Board[] boards;
+        if (reader.getType() == RecordType.Snapshot) {
+            boards = reader.getSnapshot();
+        } else {
+            boards = new Board[2];
+            for (int player = GameSession.HOST; player <= GameSession.GUEST; player++)
+                boards[player] = new Board(reader.getRules().getBoardSize(), reader.getRules().getMaxAllowedHits());
+        }
+        while (reader.next()) {
+            if (reader.getSessionNumber() != number)
+                continue;
+            switch (reader.getType()) {
+                case PlaceShip:
+                    boards[reader.getPlayer()].placeShip(reader.getShip());
+                    break;
+                case Torpedo:
+                    boards[1 - reader.getPlayer()].fireTorpedo(reader.getX(), reader.getY());
+                    break;
+                case Session:
+                case Join:
+                case Snapshot:
+                    // the recovery point is the last snapshot of the session
+                    break;
+                default:
+                    assert false : "Unreachable"; // we should never get here
+                    break;
+            }
+        }
+        return boards;
+    }
+}
@@ -0,0 +1,51 @@
+package com.csabapro.core.session;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.csabapro.core.game.Vec2;
+
+/**
+ * The board and fleet of a game, sent to the players in <code>GameStart</code>
+ */
+public final class GameRules {
+    private final Vec2 boardSize;
+    private final List<Integer> shipSizes;
+    private final int maxAllowedHits;
+
+    /**
+     * @param boardSize exclusive upper bounds of the positions on the board
+     * @param shipSizes the size of every ship a player has to place
+     */
+    public GameRules(Vec2 boardSize, List<Integer> shipSizes) {
+        this.boardSize = boardSize;
+        this.shipSizes = Collections.unmodifiableList(shipSizes);
+        int hits = 0;
+        for (int size : shipSizes)
+            hits += size;
+        this.maxAllowedHits = hits;
+    }
+
+    /**
+     * A 10x10 board with ships of size 5, 4, 3, 3 and 2
+     */
+    public static GameRules standard() {
+        return new GameRules(new Vec2(10, 10), Arrays.asList(5, 4, 3, 3, 2));
+    }
+
+    public Vec2 getBoardSize() {
+        return boardSize;
+    }
+
+    public List<Integer> getShipSizes() {
+        return shipSizes;
+    }
+
+    /**
+     * @return the sum of the ship sizes
+     */
+    public int getMaxAllowedHits() {
+        return maxAllowedHits;
+    }
+}
@@ -0,0 +1,500 @@
+package com.csabapro.core.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import com.csabapro.core.game.Action;
+import com.csabapro.core.game.Board;
+import com.csabapro.core.game.PlacementResult;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.TorpedoResult;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.ClientMessageDecoder;
+import com.csabapro.core.messaging.ClientMessageHandler;
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.messaging.ServerMessage;
+import com.csabapro.core.messaging.WireFormat;
+import com.csabapro.core.metrics.Metrics;
+import com.csabapro.core.metrics.MetricsSink;
+import com.csabapro.core.result.Result;
+
+/**
+ * A game between two players, driven by {@link ClientMessage}s and answering with {@link ServerMessage}s.
+ * <p>
+ * Every input is put in the mailbox of the session. Whichever thread finds the mailbox idle
+ * drains it, so exactly one thread at a time touches the state of a session and messages are
+ * handled in the order they were submitted, without taking a lock. Sessions share nothing,
+ * so any number of them can be driven in parallel.
+ * <p>
+ * Given an {@link Executor}, for example a {@link SessionExecutor}, the mailbox is drained on it instead
+ * of on the submitting thread. The mailbox can be bounded, a full mailbox rejects further messages.
+ * <p>
+ * Handled messages and sent errors are reported to the {@link MetricsSink} set when the session was created.
+ * <p>
+ * Flow of a game:
+ * <ol>
+ *  <li>The guest joins, both players get <code>GameStart</code>, the host goes first.</li>
+ *  <li>Both players place every ship of the rules, each placement is answered with <code>Ack</code>.</li>
+ *  <li>When both fleets are complete both players get <code>TurnChange</code>.</li>
+ *  <li>A torpedo is answered with <code>SendTorpedoAck</code> to the shooter, <code>ReceiveTorpedo</code>
+ *  to the target and then <code>TurnChange</code>, or <code>GameEnd</code> to both on the last hit.</li>
+ * </ol>
+ */
+public class GameSession {
+    public static final int HOST = 0;
+    public static final int GUEST = 1;
+
+    private static final int JOIN = 0;
+    private static final int MESSAGE = 1;
+    private static final int DISCONNECT = 2;
+    private static final int CLOSE = 3;
+
+    /** {@link #players} of a session that ended before a guest joined */
+    private static final int CLOSED = -1;
+
+    /** Messages handled before a drain on an executor yields its thread to other sessions */
+    private static final int FAIR_BATCH = 64;
+
+    private static final class Envelope {
+        final int kind;
+        final int player;
+        final ClientMessage message;
+        /** From {@link MetricsSink#startTimer()} when the envelope was queued */
+        final long queuedAt;
+
+        Envelope(int kind, int player, ClientMessage message, long queuedAt) {
+            this.kind = kind;
+            this.player = player;
+            this.message = message;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final String sessionId;
+    private final boolean isPrivate;
+    private final GameRules rules;
+    private final SessionListener listener;
+    private final LongSupplier clock;
+    private final PlayerHandler[] handlers = { new PlayerHandler(HOST), new PlayerHandler(GUEST) };
+    private final Executor executor;
+    private final int mailboxCapacity;
+    private final Runnable drainTask = this::drain;
+    private final MetricsSink metrics = Metrics.getSink();
+
+    private final AtomicInteger players = new AtomicInteger(1);
+    private final ConcurrentLinkedQueue<Envelope> mailbox = new ConcurrentLinkedQueue<>();
+    /** Messages in the mailbox or about to be offered, bounded by {@link #mailboxCapacity} */
+    private final AtomicInteger reserved = new AtomicInteger();
+    /** Envelopes offered to the mailbox and not handled yet, the thread that takes it from 0 drains it */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // only touched by the thread draining the mailbox
+    private final Board[] boards = new Board[2];
+    /** Number of ships of every size that each player still has to place */
+    private final int[][] shipsToPlace = new int[2][];
+    private final int[] shipsLeft = new int[2];
+    private int turn = HOST;
+    private long battleStart;
+    private volatile SessionPhase phase = SessionPhase.WaitingForPlayer;
+
+    public GameSession(String sessionId, boolean isPrivate, GameRules rules, SessionListener listener) {
+        this(sessionId, isPrivate, rules, listener, System::nanoTime);
+    }
+
+    /**
+     * @param clock source of the nanosecond timestamps <code>gameTimeInNs</code> is measured with, it is read
+     * once per accepted message
+     */
+    public GameSession(String sessionId, boolean isPrivate, GameRules rules, SessionListener listener, LongSupplier clock) {
+        this(sessionId, isPrivate, rules, listener, clock, null, Integer.MAX_VALUE);
+    }
+
+    public GameSession(String sessionId, boolean isPrivate, GameRules rules, SessionListener listener,
+            Executor executor, int mailboxCapacity) {
+        this(sessionId, isPrivate, rules, listener, System::nanoTime, executor, mailboxCapacity);
+    }
+
+    /**
+     * @param executor runs the mailbox, or null to drain it on the submitting threads
+     * @param mailboxCapacity the number of messages that can wait in the mailbox before {@link #submit} rejects
+     */
+    public GameSession(String sessionId, boolean isPrivate, GameRules rules, SessionListener listener,
+            LongSupplier clock, Executor executor, int mailboxCapacity) {
+        if (mailboxCapacity <= 0)
+            throw new IllegalArgumentException("Mailbox capacity must be positive, got: " + mailboxCapacity);
+        this.sessionId = sessionId;
+        this.isPrivate = isPrivate;
+        this.rules = rules;
+        this.listener = listener;
+        this.clock = clock;
+        this.executor = executor;
+        this.mailboxCapacity = mailboxCapacity;
+
+        int maxSize = 0;
+        for (int size : rules.getShipSizes())
+            maxSize = Math.max(maxSize, size);
+        for (int player = HOST; player <= GUEST; player++) {
+            boards[player] = new Board(rules.getBoardSize(), rules.getMaxAllowedHits());
+            shipsToPlace[player] = new int[maxSize + 1];
+            for (int size : rules.getShipSizes()) {
+                if (size > 0)
+                    shipsToPlace[player][size]++;
+            }
+            shipsLeft[player] = rules.getShipSizes().size();
+        }
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public GameRules getRules() {
+        return rules;
+    }
+
+    /**
+     * @return the phase as of the last handled message, safe to read from any thread
+     */
+    public SessionPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return true while only the host is in the session and it did not end
+     */
+    public boolean isOpen() {
+        return players.get() == 1;
+    }
+
+    /**
+     * Claims the guest slot of the session.
+     * The claim is atomic, of any number of concurrent callers only one gets the slot.
+     * @return {@link #GUEST}, a <code>TooManyPlayers</code> error if the slot is taken or a
+     * <code>SessionNotFound</code> error if the session ended while it waited for a guest
+     */
+    public Result<Integer, ErrorMessage> join() {
+        if (!players.compareAndSet(1, 2)) {
+            if (players.get() == CLOSED)
+                return Result.Err(ErrorMessage.SessionNotFound(sessionId));
+            return Result.Err(ErrorMessage.TooManyPlayers(sessionId));
+        }
+        enqueue(new Envelope(JOIN, GUEST, null, 0));
+        return Result.Ok(GUEST);
+    }
+
+    /**
+     * Queues a message of the player. Without an executor it is handled on the calling thread, unless another
+     * thread is already draining the mailbox of this session, in which case that thread handles it.
+     * @param player {@link #HOST} or {@link #GUEST}
+     * @return false if the mailbox is full and the message was dropped, the caller should slow down
+     */
+    public boolean submit(int player, ClientMessage message) {
+        if (player != HOST && player != GUEST)
+            throw new IllegalArgumentException("Unknown player: " + player);
+        int queued;
+        do {
+            queued = reserved.get();
+            if (queued >= mailboxCapacity)
+                return false;
+        } while (!reserved.compareAndSet(queued, queued + 1));
+        enqueue(new Envelope(MESSAGE, player, message, metrics.startTimer()));
+        return true;
+    }
+
+    /**
+     * Ends the session, the other player gets <code>EnemyDisconnected</code> if the game was not over yet.
+     */
+    public void disconnect(int player) {
+        if (player != HOST && player != GUEST)
+            throw new IllegalArgumentException("Unknown player: " + player);
+        enqueue(new Envelope(DISCONNECT, player, null, 0));
+    }
+
+    /**
+     * Tears the session down, every player still in a running game gets <code>EnemyDisconnected</code>.
+     */
+    public void close() {
+        enqueue(new Envelope(CLOSE, HOST, null, 0));
+    }
+
+    /**
+     * Queues an envelope, {@link #submit} reserves the room for messages, control envelopes are never rejected
+     */
+    private void enqueue(Envelope envelope) {
+        // offered before it is counted, so the drainer never sees a count without its envelope
+        mailbox.offer(envelope);
+        if (pending.getAndIncrement() == 0)
+            schedule();
+    }
+
+    private void schedule() {
+        if (executor == null) {
+            drain();
+            return;
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            // the executor is shutting down, the mailbox must not be left stuck
+            drain();
+        }
+    }
+
+    private void drain() {
+        // this thread is now the single writer until the mailbox is empty
+        RuntimeException failure = null;
+        int handled = 0;
+        while (true) {
+            Envelope e = mailbox.poll();
+            assert e != null : "Counted envelope missing from the mailbox";
+            if (e.kind == MESSAGE)
+                reserved.decrementAndGet();
+            boolean yield = executor != null && ++handled == FAIR_BATCH;
+            try {
+                handle(e);
+            } catch (RuntimeException ex) {
+                // keep draining, otherwise the session would never run again
+                if (failure == null)
+                    failure = ex;
+            }
+            // still the single writer, so the flush can not overlap a message handled by the next drain
+            if (yield || pending.get() == 1) {
+                try {
+                    listener.onFlush();
+                } catch (RuntimeException ex) {
+                    if (failure == null)
+                        failure = ex;
+                }
+            }
+            if (pending.decrementAndGet() == 0)
+                break;
+            if (yield) {
+                schedule();
+                break;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private void handle(Envelope e) {
+        switch (e.kind) {
+            case JOIN:
+                onJoin();
+                break;
+            case DISCONNECT:
+                onDisconnect(e.player);
+                break;
+            case CLOSE:
+                onClose();
+                break;
+            case MESSAGE:
+                onMessage(e.player, e.message);
+                metrics.clientMessageHandled(e.message.type, e.queuedAt);
+                break;
+            default:
+                assert false : "Unreachable"; // we should never get here
+                break;
+        }
+    }
+
+    private void onJoin() {
+        if (phase == SessionPhase.Ended) {
+            // the guest claimed the slot just before the session ended, it must not be left waiting
+            listener.onMessage(GUEST, ServerMessage.EnemyDisconnected(sessionId));
+            return;
+        }
+        if (phase != SessionPhase.WaitingForPlayer)
+            return;
+        phase = SessionPhase.ShipPlacement;
+        for (int player = HOST; player <= GUEST; player++) {
+            listener.onMessage(player, ServerMessage.GameStart(sessionId, player == HOST, rules.getBoardSize(),
+                    rules.getShipSizes(), rules.getMaxAllowedHits()));
+        }
+    }
+
+    private void onDisconnect(int player) {
+        if (phase == SessionPhase.Ended)
+            return;
+        boolean hadEnemy = phase != SessionPhase.WaitingForPlayer;
+        phase = SessionPhase.Ended;
+        if (hadEnemy)
+            listener.onMessage(1 - player, ServerMessage.EnemyDisconnected(sessionId));
+        else
+            closeGuestSlot();
+    }
+
+    private void onClose() {
+        if (phase == SessionPhase.Ended)
+            return;
+        boolean hadGuest = phase != SessionPhase.WaitingForPlayer;
+        phase = SessionPhase.Ended;
+        if (hadGuest) {
+            listener.onMessage(HOST, ServerMessage.EnemyDisconnected(sessionId));
+            listener.onMessage(GUEST, ServerMessage.EnemyDisconnected(sessionId));
+        } else {
+            closeGuestSlot();
+        }
+    }
+
+    /**
+     * Makes {@link #join()} fail from now on. A guest that claimed the slot before gets
+     * <code>EnemyDisconnected</code> once its join is handled.
+     */
+    private void closeGuestSlot() {
+        players.compareAndSet(1, CLOSED);
+    }
+
+    private void onMessage(int player, ClientMessage message) {
+        ClientMessageDecoder.dispatch(message, handlers[player]);
+    }
+
+    /**
+     * Routes the messages of one player, a running session only accepts the messages of the game itself
+     */
+    private final class PlayerHandler implements ClientMessageHandler {
+        private final int player;
+
+        PlayerHandler(int player) {
+            this.player = player;
+        }
+
+        @Override
+        public void onCreateSession(boolean isPrivateSession, WireFormat wireFormat) {
+            notInGame(player, ClientMessageType.CreateSession);
+        }
+
+        @Override
+        public void onFindSession() {
+            notInGame(player, ClientMessageType.FindSession);
+        }
+
+        @Override
+        public void onJoinSession(String sessionId, WireFormat wireFormat) {
+            notInGame(player, ClientMessageType.JoinSession);
+        }
+
+        @Override
+        public void onSendTorpedo(String sessionId, Vec2 torpedoPos) {
+            sendTorpedo(player, torpedoPos);
+        }
+
+        @Override
+        public void onPlaceShip(String sessionId, Ship ship) {
+            placeShip(player, ship);
+        }
+    }
+
+    private void reject(int player, ErrorMessage error) {
+        metrics.errorSent(error.getCode());
+        listener.onError(player, error);
+    }
+
+    private void notInGame(int player, ClientMessageType type) {
+        reject(player, ErrorMessage.MalformedMessage(ClientMessage.class.getSimpleName(),
+                "`" + type + "` can not be sent to a running session.", new HashMap<>()));
+    }
+
+    private void placeShip(int player, Ship requested) {
+        if (phase == SessionPhase.Battle) {
+            reject(player, ErrorMessage.ActionOutOfTurn(sessionId, Action.TorpedoSend));
+            return;
+        }
+        if (phase != SessionPhase.ShipPlacement) {
+            reject(player, ErrorMessage.PlayerOutOfTurn(sessionId));
+            return;
+        }
+
+        // the board keeps the ship, so it must not be shared with the caller
+        Ship ship = new Ship(requested.getStartPos(), requested.getOrientation(), requested.getSize());
+        int[] toPlace = shipsToPlace[player];
+        if (ship.getSize() <= 0 || ship.getSize() >= toPlace.length || toPlace[ship.getSize()] == 0) {
+            reject(player, ErrorMessage.IncorrectShipSize(sessionId, ship));
+            return;
+        }
+
+        Board board = boards[player];
+        PlacementResult result = board.placeShip(ship);
+        if (result == PlacementResult.OutOfBounds) {
+            Vec2 lastCell = Vec2.of(board.getWidth() - 1, board.getHeight() - 1);
+            reject(player, ErrorMessage.ShipOutOfBounds(sessionId, ship, ship.getOutOfBoundsPositions(lastCell)));
+            return;
+        }
+        if (result == PlacementResult.Overlap) {
+            List<Vec2> overlapping = new ArrayList<>();
+            for (int i = 0; i < ship.getSize(); i++) {
+                Vec2 cell = ship.getCell(i);
+                if (board.isOccupied(cell.x, cell.y))
+                    overlapping.add(cell);
+            }
+            reject(player, ErrorMessage.ShipOverlap(sessionId, ship, overlapping));
+            return;
+        }
+
+        toPlace[ship.getSize()]--;
+        shipsLeft[player]--;
+        long now = clock.getAsLong();
+        listener.onShipPlaced(player, ship, now);
+        listener.onMessage(player, ServerMessage.Ack());
+
+        if (shipsLeft[HOST] == 0 && shipsLeft[GUEST] == 0) {
+            phase = SessionPhase.Battle;
+            battleStart = now;
+            turn = HOST;
+            listener.onMessage(HOST, ServerMessage.TurnChange(sessionId, true));
+            listener.onMessage(GUEST, ServerMessage.TurnChange(sessionId, false));
+        }
+    }
+
+    private void sendTorpedo(int player, Vec2 pos) {
+        if (phase == SessionPhase.ShipPlacement) {
+            reject(player, ErrorMessage.ActionOutOfTurn(sessionId, Action.ShipPlace));
+            return;
+        }
+        if (phase != SessionPhase.Battle || turn != player) {
+            reject(player, ErrorMessage.PlayerOutOfTurn(sessionId));
+            return;
+        }
+
+        int target = 1 - player;
+        Board board = boards[target];
+        TorpedoResult result = board.fireTorpedo(pos);
+        if (result == TorpedoResult.OutOfBounds) {
+            reject(player, ErrorMessage.TorpedoOutOfBounds(sessionId, pos));
+            return;
+        }
+        if (result == TorpedoResult.AlreadyFired) {
+            reject(player, ErrorMessage.TorpedoOverlap(sessionId, pos));
+            return;
+        }
+
+        long now = clock.getAsLong();
+        listener.onTorpedoFired(player, pos, now);
+        listener.onMessage(player, ServerMessage.SendTorpedoAck(sessionId, pos, result.isHit()));
+        listener.onMessage(target, ServerMessage.ReceiveTorpedo(sessionId, pos));
+
+        if (board.isDefeated()) {
+            phase = SessionPhase.Ended;
+            long gameTime = now - battleStart;
+            listener.onMessage(player, ServerMessage.GameEnd(gameTime, true));
+            listener.onMessage(target, ServerMessage.GameEnd(gameTime, false));
+            return;
+        }
+
+        turn = target;
+        listener.onMessage(target, ServerMessage.TurnChange(sessionId, true));
+        listener.onMessage(player, ServerMessage.TurnChange(sessionId, false));
+    }
+}
@@ -0,0 +1,85 @@
+package com.csabapro.core.session;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads {@link GameSession} mailboxes are drained on.
+ * <p>
+ * On a JDK with virtual threads every drain runs on its own virtual thread, otherwise the sessions share
+ * a fixed pool of event loop threads. Either way a session is drained by one thread at a time, the pool
+ * only decides where.
+ */
+public final class SessionExecutor implements Executor, AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean isVirtual;
+
+    private SessionExecutor(ExecutorService executor, boolean isVirtual) {
+        this.executor = executor;
+        this.isVirtual = isVirtual;
+    }
+
+    /**
+     * Virtual threads if the JDK has them, an event loop per processor otherwise
+     */
+    public static SessionExecutor create() {
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null)
+            return new SessionExecutor(virtual, true);
+        return eventLoop(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * A fixed number of daemon event loop threads, whatever the JDK
+     */
+    public static SessionExecutor eventLoop(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "session-loop-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new SessionExecutor(Executors.newFixedThreadPool(threads, factory), false);
+    }
+
+    /**
+     * The library targets Java 9, so the JDK 21 factory is looked up reflectively
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public boolean isVirtual() {
+        return isVirtual;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Stops accepting drains and waits for the running ones to finish.
+     * Sessions submitted to afterwards are drained on the submitting thread.
+     * If the caller is interrupted it stops waiting and its interrupt flag is set again.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.csabapro.core.session;
+
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.messaging.ServerMessage;
+
+/**
+ * Receives everything a {@link GameSession} sends to its players.
+ * <p>
+ * The calls of one session never overlap and arrive in order, but they can come from any thread.
+ */
+public interface SessionListener {
+    /**
+     * @param player {@link GameSession#HOST} or {@link GameSession#GUEST}
+     */
+    void onMessage(int player, ServerMessage message);
+
+    /**
+     * A message of the player was rejected, the state of the session did not change
+     * @param player {@link GameSession#HOST} or {@link GameSession#GUEST}
+     */
+    void onError(int player, ErrorMessage error);
+
+    /**
+     * The session handled every message queued so far, e.g. to write out messages batched by recipient
+     * with a {@link com.csabapro.core.messaging.ServerMessageBatch}
+     */
+    default void onFlush() {}
+
+    /**
+     * A ship of the player was accepted, called before the answers to it are sent
+     * @param timestamp read from the clock of the session, see {@link GameSession}
+     */
+    default void onShipPlaced(int player, Ship ship, long timestamp) {}
+
+    /**
+     * A torpedo of the player was accepted, called before the answers to it are sent
+     * @param timestamp read from the clock of the session, see {@link GameSession}
+     */
+    default void onTorpedoFired(int player, Vec2 torpedoPos, long timestamp) {}
+}
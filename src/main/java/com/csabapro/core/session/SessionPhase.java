@@ -0,0 +1,12 @@
+package com.csabapro.core.session;
+
+public enum SessionPhase {
+    /** Only the host is in the session */
+    WaitingForPlayer,
+    /** Both players are placing their ships, see {@link com.csabapro.core.game.Action#ShipPlace} */
+    ShipPlacement,
+    /** Players take turns sending torpedoes, see {@link com.csabapro.core.game.Action#TorpedoSend} */
+    Battle,
+    /** A player won or left */
+    Ended;
+}
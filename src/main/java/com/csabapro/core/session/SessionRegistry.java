@@ -0,0 +1,174 @@
+package com.csabapro.core.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.result.Result;
+
+/**
+ * All running {@link GameSession}s, keyed by their <code>sessionId</code>.
+ * <p>
+ * Sessions are spread over independent concurrent maps by the hash of their id, so creating, looking up
+ * and removing sessions never contend on a shared lock. Public sessions that wait for a guest are also
+ * kept in a lock-free lobby queue: <code>FindSession</code> only walks the lobbies instead of every game,
+ * and sessions that filled up or went away are dropped from the queue as they are found.
+ */
+public class SessionRegistry {
+    private final ConcurrentHashMap<String, GameSession>[] shards;
+    private final int shardMask;
+    private final ConcurrentLinkedQueue<GameSession> lobbies = new ConcurrentLinkedQueue<>();
+    private final GameRules rules;
+    private final Executor executor;
+    private final int mailboxCapacity;
+
+    /**
+     * Uses a shard count of four times the number of processors
+     */
+    public SessionRegistry(GameRules rules) {
+        this(rules, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param shardCount rounded up to the next power of two
+     */
+    public SessionRegistry(GameRules rules, int shardCount) {
+        this(rules, shardCount, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param executor drains the mailboxes of the created sessions, see {@link GameSession}
+     * @param mailboxCapacity of every created session
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public SessionRegistry(GameRules rules, int shardCount, Executor executor, int mailboxCapacity) {
+        int count = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        this.shards = new ConcurrentHashMap[count];
+        for (int i = 0; i < count; i++)
+            shards[i] = new ConcurrentHashMap<>();
+        this.shardMask = count - 1;
+        this.rules = rules;
+        this.executor = executor;
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+    private ConcurrentHashMap<String, GameSession> shard(String sessionId) {
+        int h = sessionId.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    private static String newSessionId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    /**
+     * Creates a session with a fresh id, the caller is its host.
+     * A public session is listed by {@link #findSessions(int)} until a guest joins.
+     */
+    public GameSession create(boolean isPrivate, SessionListener listener) {
+        GameSession session;
+        do {
+            session = new GameSession(newSessionId(), isPrivate, rules, listener, executor, mailboxCapacity);
+        } while (shard(session.getSessionId()).putIfAbsent(session.getSessionId(), session) != null);
+
+        if (!isPrivate)
+            lobbies.offer(session);
+        return session;
+    }
+
+    /**
+     * @return the session or a <code>SessionNotFound</code> error
+     */
+    public Result<GameSession, ErrorMessage> get(String sessionId) {
+        GameSession session = sessionId == null ? null : shard(sessionId).get(sessionId);
+        if (session == null)
+            return Result.Err(ErrorMessage.SessionNotFound(sessionId));
+        return Result.Ok(session);
+    }
+
+    /**
+     * Claims the guest slot of the session, see {@link GameSession#join()}
+     * @return the joined session, a <code>SessionNotFound</code> or a <code>TooManyPlayers</code> error
+     */
+    public Result<GameSession, ErrorMessage> join(String sessionId) {
+        Result<GameSession, ErrorMessage> found = get(sessionId);
+        if (found.isErr())
+            return found;
+        GameSession session = found.unwrap();
+        Result<Integer, ErrorMessage> joined = session.join();
+        if (joined.isErr())
+            return Result.Err(joined.unwrapErr());
+        return found;
+    }
+
+    /**
+     * Lists public sessions that are waiting for a guest, in the order they were created.
+     * Costs the number of returned sessions plus the number of stale lobbies it cleans up on the way.
+     */
+    public List<GameSession> findSessions(int limit) {
+        List<GameSession> found = new ArrayList<>(Math.min(limit, 16));
+        Iterator<GameSession> it = lobbies.iterator();
+        while (found.size() < limit && it.hasNext()) {
+            GameSession session = it.next();
+            if (isWaiting(session))
+                found.add(session);
+            else
+                it.remove();
+        }
+        return found;
+    }
+
+    /**
+     * Joins the oldest public session that is waiting for a guest.
+     * @return the joined session or a <code>NoOpenSession</code> error if there is none
+     */
+    public Result<GameSession, ErrorMessage> findAndJoin() {
+        GameSession session;
+        while ((session = lobbies.poll()) != null) {
+            if (isWaiting(session) && session.join().isOk())
+                return Result.Ok(session);
+        }
+        return Result.Err(ErrorMessage.NoOpenSession());
+    }
+
+    /**
+     * Forgets the session, its lobby entry is dropped the next time the lobbies are walked.
+     */
+    public void remove(String sessionId) {
+        shard(sessionId).remove(sessionId);
+    }
+
+    /**
+     * Removes and tears down the session, the players of a started game get <code>EnemyDisconnected</code>
+     * @return false if there was no such session
+     */
+    public boolean close(String sessionId) {
+        GameSession session = shard(sessionId).remove(sessionId);
+        if (session == null)
+            return false;
+        session.close();
+        return true;
+    }
+
+    /**
+     * @return the number of sessions, not an atomic snapshot while sessions are added or removed
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, GameSession> shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    private boolean isWaiting(GameSession session) {
+        return session.isOpen() && session.getPhase() == SessionPhase.WaitingForPlayer
+                && shard(session.getSessionId()).get(session.getSessionId()) == session;
+    }
+}
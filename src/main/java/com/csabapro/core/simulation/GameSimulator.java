@@ -0,0 +1,248 @@
+package com.csabapro.core.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongFunction;
+
+import com.csabapro.core.bot.TargetingStrategy;
+import com.csabapro.core.game.Board;
+import com.csabapro.core.game.FleetGenerator;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.TorpedoResult;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.messaging.ServerMessage;
+import com.csabapro.core.session.GameRules;
+import com.csabapro.core.session.GameSession;
+import com.csabapro.core.session.SessionListener;
+
+/**
+ * Plays complete games between two {@link TargetingStrategy}s, with fleets from a {@link FleetGenerator}.
+ * <p>
+ * Games are split into batches that run in parallel on a {@link ForkJoinPool}, every batch collects its own
+ * {@link SimulationReport} and the reports are merged at the end. Each batch is seeded from the seed of the
+ * run and its first game, so the same seed plays the same games, whatever the number of threads.
+ */
+public final class GameSimulator {
+    /** How the games are played */
+    public enum Mode {
+        /** Torpedoes are fired straight at {@link Board}s, the fastest way to play */
+        Direct,
+        /**
+         * Every game is a {@link GameSession} driven by <code>PlaceShip</code> and <code>SendTorpedo</code>
+         * messages, the strategies learn from the {@link ServerMessage}s the session sends
+         */
+        Session
+    }
+
+    /** Games played by one task */
+    private static final int BATCH = 256;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final GameRules rules;
+    private final int[] shipSizes;
+    private final LongFunction<? extends TargetingStrategy> host;
+    private final LongFunction<? extends TargetingStrategy> guest;
+
+    /**
+     * @param host creates the strategy of the host from a seed, the host fires first
+     * @param guest creates the strategy of the guest from a seed
+     */
+    public GameSimulator(GameRules rules, LongFunction<? extends TargetingStrategy> host,
+            LongFunction<? extends TargetingStrategy> guest) {
+        this.rules = rules;
+        this.host = host;
+        this.guest = guest;
+        this.shipSizes = new int[rules.getShipSizes().size()];
+        for (int i = 0; i < shipSizes.length; i++)
+            shipSizes[i] = rules.getShipSizes().get(i);
+    }
+
+    /**
+     * Plays the games on the common {@link ForkJoinPool}
+     */
+    public SimulationReport run(int games, long seed, Mode mode) {
+        return run(games, seed, mode, ForkJoinPool.commonPool());
+    }
+
+    public SimulationReport run(int games, long seed, Mode mode, ForkJoinPool pool) {
+        if (games < 0)
+            throw new IllegalArgumentException("Number of games must not be negative, got: " + games);
+        return pool.invoke(new SimulationTask(seed, mode, 0, games));
+    }
+
+    /**
+     * Plays the games from <code>from</code> (inclusive) to <code>to</code> (exclusive) on the calling thread
+     */
+    private SimulationReport playBatch(long seed, Mode mode, int from, int to) {
+        SplittableRandom random = new SplittableRandom(seed + from * GOLDEN_GAMMA);
+        FleetGenerator fleets = new FleetGenerator(rules.getBoardSize(), rules.getShipSizes(), random.nextLong());
+        TargetingStrategy[] strategies = { host.apply(random.nextLong()), guest.apply(random.nextLong()) };
+        int[][] packedFleets = new int[2][shipSizes.length];
+        SimulationReport report = new SimulationReport();
+        for (int game = from; game < to; game++) {
+            if (!fleets.nextPacked(packedFleets[GameSession.HOST]) || !fleets.nextPacked(packedFleets[GameSession.GUEST])) {
+                report.recordUnfinished();
+                continue;
+            }
+            if (mode == Mode.Direct)
+                playDirect(packedFleets, strategies, report);
+            else
+                playSession("game-" + game, packedFleets, strategies, report);
+        }
+        return report;
+    }
+
+    private void playDirect(int[][] packedFleets, TargetingStrategy[] strategies, SimulationReport report) {
+        int width = rules.getBoardSize().x;
+        int height = rules.getBoardSize().y;
+        Board[] boards = new Board[2];
+        for (int player = GameSession.HOST; player <= GameSession.GUEST; player++) {
+            boards[player] = new Board(width, height, rules.getMaxAllowedHits());
+            for (int i = 0; i < shipSizes.length; i++)
+                boards[player].placeShip(FleetGenerator.unpack(packedFleets[player][i], shipSizes[i], width));
+            strategies[player].start(null, width, height, shipSizes);
+        }
+
+        long start = System.nanoTime();
+        int player = GameSession.HOST;
+        int turns = 0;
+        int hits = 0;
+        while (true) {
+            int cell = strategies[player].nextCell();
+            if (cell < 0) {
+                report.recordUnfinished();
+                return;
+            }
+            int x = cell % width;
+            int y = cell / width;
+            Board target = boards[1 - player];
+            TorpedoResult result = target.fireTorpedo(x, y);
+            boolean isHit = result == TorpedoResult.Hit || result == TorpedoResult.Sunk;
+            strategies[player].record(x, y, isHit);
+            turns++;
+            if (isHit)
+                hits++;
+            if (target.isDefeated())
+                break;
+            player = 1 - player;
+        }
+        report.recordGame(turns, System.nanoTime() - start, hits, player == GameSession.HOST);
+    }
+
+    private void playSession(String sessionId, int[][] packedFleets, TargetingStrategy[] strategies, SimulationReport report) {
+        int width = rules.getBoardSize().x;
+        SessionPlayer listener = new SessionPlayer(strategies);
+        GameSession session = new GameSession(sessionId, true, rules, listener);
+        session.join();
+        for (int player = GameSession.HOST; player <= GameSession.GUEST; player++) {
+            for (int i = 0; i < shipSizes.length; i++) {
+                Ship ship = FleetGenerator.unpack(packedFleets[player][i], shipSizes[i], width);
+                session.submit(player, ClientMessage.PlaceShip(sessionId, ship));
+            }
+        }
+
+        int turns = 0;
+        while (listener.winner < 0) {
+            int player = listener.turn;
+            int cell = player < 0 || listener.failed ? -1 : strategies[player].nextCell();
+            if (cell < 0) {
+                report.recordUnfinished();
+                return;
+            }
+            session.submit(player, ClientMessage.SendTorpedo(sessionId, Vec2.of(cell % width, cell / width)));
+            turns++;
+        }
+        report.recordGame(turns, listener.gameTimeInNs, listener.hits, listener.winner == GameSession.HOST);
+    }
+
+    /**
+     * Feeds the messages of a session to the strategies of its players
+     */
+    private static final class SessionPlayer implements SessionListener {
+        private final TargetingStrategy[] strategies;
+        int turn = -1;
+        int winner = -1;
+        int hits = 0;
+        long gameTimeInNs;
+        boolean failed = false;
+
+        SessionPlayer(TargetingStrategy[] strategies) {
+            this.strategies = strategies;
+        }
+
+        @Override
+        public void onMessage(int player, ServerMessage message) {
+            switch (message.messageType) {
+                case GameStart: {
+                    int[] sizes = new int[message.shipSizes.size()];
+                    for (int i = 0; i < sizes.length; i++)
+                        sizes[i] = message.shipSizes.get(i);
+                    strategies[player].start(message.sessionId, message.boardSize.x, message.boardSize.y, sizes);
+                    break;
+                }
+                case TurnChange:
+                    if (message.isYourTurn)
+                        turn = player;
+                    break;
+                case SendTorpedoAck:
+                    strategies[player].record(message.torpedoPos.x, message.torpedoPos.y, message.isHit);
+                    if (message.isHit)
+                        hits++;
+                    break;
+                case GameEnd:
+                    gameTimeInNs = message.gameTimeInNs;
+                    if (message.isWin)
+                        winner = player;
+                    break;
+                case EnemyDisconnected:
+                    failed = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onError(int player, ErrorMessage error) {
+            // a generated fleet is legal and the strategies never fire twice at a cell
+            failed = true;
+        }
+    }
+
+    private final class SimulationTask extends RecursiveTask<SimulationReport> {
+        private static final long serialVersionUID = 1L;
+
+        private final long seed;
+        private final Mode mode;
+        private final int from;
+        private final int to;
+
+        SimulationTask(long seed, Mode mode, int from, int to) {
+            this.seed = seed;
+            this.mode = mode;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SimulationReport compute() {
+            if (to - from <= BATCH)
+                return playBatch(seed, mode, from, to);
+            List<SimulationTask> tasks = new ArrayList<>();
+            // split on batch boundaries, so the batches and their seeds do not depend on the splitting
+            int batches = (to - from + BATCH - 1) / BATCH;
+            int middle = from + batches / 2 * BATCH;
+            tasks.add(new SimulationTask(seed, mode, from, middle));
+            tasks.add(new SimulationTask(seed, mode, middle, to));
+            invokeAll(tasks);
+            SimulationReport report = tasks.get(0).join();
+            report.add(tasks.get(1).join());
+            return report;
+        }
+    }
+}
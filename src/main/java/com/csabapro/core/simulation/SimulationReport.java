@@ -0,0 +1,84 @@
+package com.csabapro.core.simulation;
+
+import com.csabapro.core.metrics.LatencyHistogram;
+
+/**
+ * Distributions over the games played by a {@link GameSimulator}
+ */
+public final class SimulationReport {
+    private final LatencyHistogram turns = new LatencyHistogram();
+    private final LatencyHistogram gameTimes = new LatencyHistogram();
+    private final LatencyHistogram hitRatios = new LatencyHistogram();
+    private long games;
+    private long hostWins;
+    private long unfinished;
+
+    void recordGame(int turns, long gameTimeInNs, int hits, boolean hostWon) {
+        this.turns.record(turns);
+        gameTimes.record(gameTimeInNs);
+        hitRatios.record(turns == 0 ? 0 : hits * 1000L / turns);
+        games++;
+        if (hostWon)
+            hostWins++;
+    }
+
+    void recordUnfinished() {
+        unfinished++;
+    }
+
+    void add(SimulationReport other) {
+        turns.add(other.turns);
+        gameTimes.add(other.gameTimes);
+        hitRatios.add(other.hitRatios);
+        games += other.games;
+        hostWins += other.hostWins;
+        unfinished += other.unfinished;
+    }
+
+    /**
+     * @return the number of finished games, every distribution has one value per game
+     */
+    public long getGames() {
+        return games;
+    }
+
+    public long getHostWins() {
+        return hostWins;
+    }
+
+    /**
+     * @return the number of games that were given up, because a fleet did not fit or a strategy ran out of cells
+     */
+    public long getUnfinished() {
+        return unfinished;
+    }
+
+    /**
+     * @return the number of torpedoes fired by both players in a game
+     */
+    public LatencyHistogram getTurns() {
+        return turns;
+    }
+
+    /**
+     * @return the <code>gameTimeInNs</code> of the games, from the end of the ship placement to the last hit
+     */
+    public LatencyHistogram getGameTimes() {
+        return gameTimes;
+    }
+
+    /**
+     * @return the hits per thousand torpedoes of both players in a game
+     */
+    public LatencyHistogram getHitRatios() {
+        return hitRatios;
+    }
+
+    @Override
+    public String toString() {
+        return "games: " + games + ", host wins: " + hostWins + ", unfinished: " + unfinished
+                + ", turns p50/p99: " + turns.getValueAtPercentile(50) + "/" + turns.getValueAtPercentile(99)
+                + ", game time p50/p99 (ns): " + gameTimes.getValueAtPercentile(50) + "/" + gameTimes.getValueAtPercentile(99)
+                + ", hit ratio p50 (per mille): " + hitRatios.getValueAtPercentile(50);
+    }
+}
@@ -0,0 +1,260 @@
+package com.csabapro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.csabapro.core.bot.TorpedoBot;
+import com.csabapro.core.game.Board;
+import com.csabapro.core.game.FleetGenerator;
+import com.csabapro.core.game.FleetValidator;
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.PlacementResult;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.TorpedoResult;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.ErrorCode;
+import com.csabapro.core.messaging.ErrorMessage;
+
+public class GameTests {
+    @Test
+    public void testBoardPlacesShips() {
+        Board board = new Board(new Vec2(10, 10), 5);
+        assertEquals(PlacementResult.Placed, board.placeShip(new Ship(new Vec2(1, 1), Orientation.Horizontal, 3)));
+        assertEquals(PlacementResult.Overlap, board.placeShip(new Ship(new Vec2(2, 0), Orientation.Vertical, 2)));
+        assertEquals(PlacementResult.Overlap, board.placeShip(new Ship(new Vec2(3, 1), Orientation.Horizontal, 2)));
+        assertEquals(PlacementResult.OutOfBounds, board.placeShip(new Ship(new Vec2(8, 5), Orientation.Horizontal, 3)));
+        assertEquals(PlacementResult.OutOfBounds, board.placeShip(new Ship(new Vec2(5, 9), Orientation.Vertical, 2)));
+        assertEquals(PlacementResult.OutOfBounds, board.placeShip(new Ship(new Vec2(-1, 0), Orientation.Vertical, 2)));
+        assertEquals(PlacementResult.Placed, board.placeShip(new Ship(new Vec2(4, 0), Orientation.Vertical, 2)));
+        assertEquals(PlacementResult.Placed, board.placeShip(new Ship(new Vec2(9, 8), Orientation.Vertical, 2)));
+        assertEquals(3, board.getShipCount());
+        assertTrue(board.isOccupied(4, 1));
+        assertFalse(board.isOccupied(4, 2));
+    }
+
+    @Test
+    public void testBoardResolvesTorpedoes() {
+        Board board = new Board(new Vec2(10, 10), 5);
+        board.placeShip(new Ship(new Vec2(1, 1), Orientation.Horizontal, 3));
+        board.placeShip(new Ship(new Vec2(0, 5), Orientation.Vertical, 2));
+
+        assertEquals(TorpedoResult.Miss, board.fireTorpedo(new Vec2(0, 0)));
+        assertEquals(TorpedoResult.AlreadyFired, board.fireTorpedo(new Vec2(0, 0)));
+        assertEquals(TorpedoResult.OutOfBounds, board.fireTorpedo(new Vec2(10, 0)));
+        assertEquals(TorpedoResult.Hit, board.fireTorpedo(new Vec2(0, 5)));
+        assertEquals(TorpedoResult.Sunk, board.fireTorpedo(new Vec2(0, 6)));
+        assertEquals(3, board.getRemainingHits());
+        assertEquals(TorpedoResult.Hit, board.fireTorpedo(new Vec2(1, 1)));
+        assertEquals(TorpedoResult.Hit, board.fireTorpedo(new Vec2(3, 1)));
+        assertFalse(board.isDefeated());
+        assertEquals(TorpedoResult.Sunk, board.fireTorpedo(new Vec2(2, 1)));
+        assertTrue(board.isDefeated());
+        assertNull(board.getShipAt(5, 5));
+    }
+
+    @Test
+    public void testBoardChecksOverlapAcrossWords() {
+        Board board = new Board(new Vec2(100, 3), 100);
+        assertEquals(PlacementResult.Placed, board.placeShip(new Ship(new Vec2(0, 0), Orientation.Horizontal, 90)));
+        assertEquals(PlacementResult.Overlap, board.placeShip(new Ship(new Vec2(89, 0), Orientation.Horizontal, 5)));
+        assertEquals(PlacementResult.Placed, board.placeShip(new Ship(new Vec2(90, 0), Orientation.Horizontal, 10)));
+        assertEquals(PlacementResult.Overlap, board.placeShip(new Ship(new Vec2(63, 0), Orientation.Vertical, 3)));
+        assertEquals(PlacementResult.Placed, board.placeShip(new Ship(new Vec2(0, 1), Orientation.Horizontal, 100)));
+        assertEquals(PlacementResult.Overlap, board.placeShip(new Ship(new Vec2(99, 1), Orientation.Vertical, 2)));
+    }
+
+    @Test
+    public void testBoardRejectsHugeShips() {
+        Board board = new Board(10, 10, 5);
+        assertEquals(PlacementResult.OutOfBounds, board.placeShip(new Ship(Vec2.of(1, 0), Orientation.Horizontal, Integer.MAX_VALUE)));
+        assertEquals(PlacementResult.OutOfBounds, board.placeShip(new Ship(Vec2.of(0, 9), Orientation.Vertical, Integer.MAX_VALUE)));
+        assertEquals(PlacementResult.OutOfBounds, board.checkPlacement(new Ship(Vec2.of(9, 9), Orientation.Horizontal, Integer.MAX_VALUE - 8)));
+        assertEquals(0, board.getShipCount());
+    }
+
+    @Test
+    public void testShipGeometry() {
+        Ship ship = new Ship(new Vec2(1, 2), Orientation.Horizontal, 3);
+        assertEquals(Arrays.asList(new Vec2(1, 2), new Vec2(2, 2), new Vec2(3, 2)), ship.getPositions());
+        assertTrue(ship.contains(3, 2));
+        assertFalse(ship.contains(4, 2));
+        assertTrue(ship.getOutOfBoundsPositions(new Vec2(3, 3)).isEmpty());
+        assertEquals(Arrays.asList(new Vec2(3, 2)), ship.getOutOfBoundsPositions(new Vec2(2, 3)));
+        assertEquals(Arrays.asList(new Vec2(2, 2)), ship.getOverlappingPositions(Arrays.asList(new Vec2(0, 2), new Vec2(2, 2))));
+        assertTrue(ship.overlaps(new Ship(new Vec2(2, 0), Orientation.Vertical, 3)));
+        assertFalse(ship.overlaps(new Ship(new Vec2(4, 0), Orientation.Vertical, 3)));
+
+        ship.rotate();
+        assertEquals(Arrays.asList(new Vec2(1, 2), new Vec2(1, 3), new Vec2(1, 4)), ship.getPositions());
+        assertEquals(4, ship.getEndY());
+        assertEquals(4 * 10 + 1, ship.getCellIndex(2, 10));
+    }
+
+    @Test
+    public void testVec2IsAValue() {
+        assertSame(Vec2.of(3, 4), Vec2.of(3, 4));
+        assertEquals(new Vec2(3, 4), Vec2.of(3, 4));
+        assertEquals(new Vec2(3, 4).hashCode(), Vec2.of(3, 4).hashCode());
+        assertEquals(new Vec2(-7, 100), Vec2.fromLong(new Vec2(-7, 100).toLong()));
+        assertEquals(Vec2.of(5, 6), Vec2.fromLong(Vec2.pack(5, 6)));
+
+        Set<Vec2> positions = new HashSet<>(Arrays.asList(new Vec2(1, 2), new Vec2(2, 2)));
+        assertTrue(Vec2.of(1, 2).isOverlapping(positions));
+        Ship ship = new Ship(new Vec2(0, 2), Orientation.Horizontal, 2);
+        assertEquals(Arrays.asList(new Vec2(1, 2)), ship.getOverlappingPositions(positions));
+    }
+
+    @Test
+    public void testVec2Parses() throws ParseException {
+        assertEquals(new Vec2(12, -3), Vec2.parse("12,-3").unwrap());
+        assertEquals(new Vec2(1, 2), Vec2.parse("pos=1,2;", 4, 7).unwrap());
+        byte[] bytes = "x 7,+8".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(new Vec2(7, 8), Vec2.parse(bytes, 2, 4).unwrap());
+        assertEquals(new Vec2(Integer.MIN_VALUE, Integer.MAX_VALUE), Vec2.parse("-2147483648,2147483647").unwrap());
+        assertEquals(new Vec2(4, 5), Vec2.fromString("4,5"));
+
+        assertTrue(Vec2.parse("1").isErr());
+        assertTrue(Vec2.parse("1,2,3").isErr());
+        assertTrue(Vec2.parse("1,").isErr());
+        assertTrue(Vec2.parse("-,1").isErr());
+        assertTrue(Vec2.parse("a,1").isErr());
+        assertTrue(Vec2.parse("2147483648,1").isErr());
+        assertEquals(ErrorCode.MalformedMessage, Vec2.parse("1;2").unwrapErr().getCode());
+        try {
+            Vec2.fromString("1;2");
+            fail();
+        } catch (ParseException e) {
+        }
+    }
+
+    @Test
+    public void testFleetValidatorChecksWholeFleets() {
+        FleetValidator validator = FleetValidator.of(new Vec2(5, 4), Arrays.asList(3, 2, 2));
+        assertSame(validator, FleetValidator.of(new Vec2(5, 4), Arrays.asList(3, 2, 2)));
+        assertTrue(validator.isLegal(3, Orientation.Horizontal, 2, 3));
+        assertFalse(validator.isLegal(3, Orientation.Horizontal, 3, 0));
+        assertTrue(validator.isLegal(2, Orientation.Vertical, 4, 2));
+        assertFalse(validator.isLegal(3, Orientation.Vertical, 0, 2));
+        assertFalse(validator.isLegal(4, Orientation.Vertical, 0, 0));
+
+        List<Ship> valid = Arrays.asList(
+                new Ship(new Vec2(0, 0), Orientation.Horizontal, 3),
+                new Ship(new Vec2(4, 0), Orientation.Vertical, 2),
+                new Ship(new Vec2(0, 1), Orientation.Vertical, 2));
+        assertTrue(validator.isValid(valid));
+        assertTrue(validator.validate("s", valid).isEmpty());
+        assertFalse(validator.isValid(valid.subList(0, 2)));
+
+        List<ErrorMessage> errors = validator.validate("s", Arrays.asList(
+                new Ship(new Vec2(0, 0), Orientation.Horizontal, 3),
+                new Ship(new Vec2(2, 0), Orientation.Vertical, 2),
+                new Ship(new Vec2(4, 3), Orientation.Vertical, 2),
+                new Ship(new Vec2(1, 1), Orientation.Horizontal, 4),
+                new Ship(new Vec2(1, 1), Orientation.Horizontal, 2),
+                new Ship(new Vec2(0, 1), Orientation.Horizontal, 2)));
+        assertEquals(4, errors.size());
+        assertEquals(ErrorCode.ShipOverlap, errors.get(0).getCode());
+        assertEquals(ErrorCode.ShipOutOfBounds, errors.get(1).getCode());
+        assertEquals(ErrorCode.IncorrectShipSize, errors.get(2).getCode());
+        assertEquals(ErrorCode.ShipOverlap, errors.get(3).getCode());
+
+        List<List<Ship>> fleets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            fleets.add(i % 3 == 0 ? valid : valid.subList(0, 1));
+        List<List<ErrorMessage>> results = validator.validateAll(fleets);
+        assertEquals(1000, results.size());
+        for (List<ErrorMessage> result : results)
+            assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testVec2BoundsAreExclusive() {
+        Vec2 bounds = new Vec2(3, 2);
+        assertTrue(new Vec2(0, 0).isInBounds(bounds));
+        assertTrue(new Vec2(2, 1).isInBounds(bounds));
+        assertFalse(new Vec2(3, 1).isInBounds(bounds));
+        assertFalse(new Vec2(2, 2).isInBounds(bounds));
+        assertFalse(new Vec2(-1, 0).isInBounds(bounds));
+    }
+
+    @Test
+    public void testTorpedoBotSinksAFleet() {
+        Board board = new Board(new Vec2(10, 10), 17);
+        board.placeShip(new Ship(new Vec2(0, 0), Orientation.Horizontal, 5));
+        board.placeShip(new Ship(new Vec2(9, 2), Orientation.Vertical, 4));
+        board.placeShip(new Ship(new Vec2(3, 4), Orientation.Horizontal, 3));
+        board.placeShip(new Ship(new Vec2(5, 6), Orientation.Vertical, 3));
+        board.placeShip(new Ship(new Vec2(1, 8), Orientation.Horizontal, 2));
+
+        TorpedoBot bot = new TorpedoBot(42);
+        bot.onGameStart("s", false, new Vec2(10, 10), new int[] { 5, 4, 3, 3, 2 }, 17);
+        assertFalse(bot.isMyTurn());
+        bot.onGameStart("s", true, new Vec2(10, 10), new int[] { 5, 4, 3, 3, 2 }, 17);
+        assertTrue(bot.isMyTurn());
+        ClientMessage move = new ClientMessage();
+        int shots = 0;
+        while (!board.isDefeated()) {
+            assertSame(move, bot.nextMove(move));
+            assertEquals(ClientMessageType.SendTorpedo, move.type);
+            assertEquals("s", move.sessionId);
+            TorpedoResult result = board.fireTorpedo(move.torpedoPos);
+            assertTrue(result == TorpedoResult.Miss || result == TorpedoResult.Hit || result == TorpedoResult.Sunk);
+            bot.onSendTorpedoAck("s", move.torpedoPos, result != TorpedoResult.Miss);
+            shots++;
+        }
+        assertEquals(100 - shots, bot.getUnknownCells());
+        // a hunt/target bot sinks a standard fleet well before firing at most of the board
+        assertTrue("took " + shots + " shots", shots < 80);
+    }
+
+    @Test
+    public void testFleetGeneratorPlacesLegalFleets() {
+        List<Integer> sizes = Arrays.asList(5, 4, 3, 3, 2);
+        FleetValidator validator = FleetValidator.of(new Vec2(10, 10), sizes);
+        FleetGenerator generator = new FleetGenerator(new Vec2(10, 10), sizes, 7);
+        Set<String> fleets = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            List<Ship> fleet = generator.next();
+            assertTrue(validator.isValid(fleet));
+            fleets.add(fleetToString(fleet));
+        }
+        assertTrue(fleets.size() > 990);
+
+        int[] packed = new int[sizes.size()];
+        assertTrue(new FleetGenerator(new Vec2(10, 10), sizes, 7).nextPacked(packed));
+        List<Ship> first = new ArrayList<>();
+        for (int i = 0; i < packed.length; i++)
+            first.add(FleetGenerator.unpack(packed[i], sizes.get(i), 10));
+        assertEquals(fleetToString(new FleetGenerator(new Vec2(10, 10), sizes, 7).next()), fleetToString(first));
+
+        // every cell is taken, only a few fleets fit
+        FleetGenerator crowded = new FleetGenerator(new Vec2(3, 3), Arrays.asList(3, 3, 2, 1), 1);
+        FleetValidator crowdedValidator = FleetValidator.of(new Vec2(3, 3), Arrays.asList(3, 3, 2, 1));
+        for (int i = 0; i < 100; i++)
+            assertTrue(crowdedValidator.isValid(crowded.next()));
+        assertNull(new FleetGenerator(new Vec2(3, 3), Arrays.asList(4), 1).next());
+    }
+
+    private static String fleetToString(List<Ship> fleet) {
+        StringBuilder sb = new StringBuilder();
+        for (Ship ship : fleet)
+            sb.append(ship.getStartPos()).append(ship.getOrientation()).append(ship.getSize()).append(';');
+        return sb.toString();
+    }
+}
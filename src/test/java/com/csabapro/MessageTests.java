@@ -1,7 +1,25 @@
 package com.csabapro;
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
@@ -9,7 +27,23 @@ import com.csabapro.core.game.Orientation;
 import com.csabapro.core.game.Ship;
 import com.csabapro.core.game.Vec2;
 import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.BinaryCodec;
+import com.csabapro.core.messaging.ClientMessageDecoder;
+import com.csabapro.core.messaging.ClientMessageHandler;
+import com.csabapro.core.messaging.ClientMessageType;
+import com.csabapro.core.messaging.CompactServerMessage;
+import com.csabapro.core.messaging.ErrorCode;
 import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.messaging.ServerMessage;
+import com.csabapro.core.messaging.ServerMessageBatch;
+import com.csabapro.core.messaging.ServerMessageDecoder;
+import com.csabapro.core.messaging.ServerMessageHandler;
+import com.csabapro.core.messaging.ServerMessageTemplates;
+import com.csabapro.core.messaging.ServerMessageType;
+import com.csabapro.core.messaging.WireFormat;
+import com.csabapro.core.metrics.LatencyHistogram;
+import com.csabapro.core.metrics.Metrics;
+import com.csabapro.core.metrics.MetricsRecorder;
 import com.csabapro.core.result.Result;
 
 public class MessageTests {
@@ -53,4 +87,396 @@ public class MessageTests {
         assertEquals(cm.ship.getOrientation(), cm2.ship.getOrientation());
         assertEquals(cm.ship.getSize(), cm2.ship.getSize());
     }
+
+    @Test
+    public void testServerMessageDeserializesCorrectly() {
+        ServerMessage sm = ServerMessage.GameStart("abc123", true, new Vec2(10, 10), Arrays.asList(2, 3), 5);
+        ServerMessage sm2 = ServerMessage.deserialize(sm.serialize()).unwrap();
+        assertEquals(sm.messageType, sm2.messageType);
+        assertEquals(sm.sessionId, sm2.sessionId);
+        assertEquals(sm.isYourTurn, sm2.isYourTurn);
+        assertEquals(sm.boardSize, sm2.boardSize);
+        assertEquals(sm.shipSizes, sm2.shipSizes);
+        assertEquals(sm.maxAllowedHits, sm2.maxAllowedHits);
+
+        sm = ServerMessage.SendTorpedoAck("abc123", new Vec2(1, 2), true);
+        sm2 = ServerMessage.deserialize(sm.serialize()).unwrap();
+        assertEquals(sm.messageType, sm2.messageType);
+        assertEquals(sm.torpedoPos, sm2.torpedoPos);
+        assertEquals(sm.isHit, sm2.isHit);
+    }
+
+    @Test
+    public void testErrorMessageDeserializesCorrectly() {
+        ErrorMessage em = ErrorMessage.SessionNotFound("abc123");
+        String serialized = em.serialize();
+        ErrorMessage em2 = ErrorMessage.deserialize(serialized).unwrap();
+        assertEquals(serialized, em2.serialize());
+    }
+
+    @Test
+    public void testClientMessageMissingFieldIsAnError() {
+        Result<ClientMessage, ErrorMessage> r = ClientMessage.deserialize("{\"type\":3,\"sessionId\":\"abc123\"}");
+        assertTrue(r.isErr());
+        r = ClientMessage.deserialize("{\"type\":");
+        assertTrue(r.isErr());
+    }
+
+    @Test
+    public void testMessagesRoundTripThroughBuffers() throws IOException {
+        ClientMessage cm = ClientMessage.SendTorpedo("abc123", new Vec2(1, 2));
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int written = cm.serialize(buffer);
+        assertEquals(buffer.position(), written);
+        buffer.flip();
+        ClientMessage cm2 = ClientMessage.deserialize(buffer).unwrap();
+        assertEquals(cm.sessionId, cm2.sessionId);
+        assertEquals(cm.torpedoPos, cm2.torpedoPos);
+        assertEquals(buffer.limit(), buffer.position());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cm.serialize(out);
+        cm2 = ClientMessage.deserialize(out.toByteArray()).unwrap();
+        assertEquals(cm.torpedoPos, cm2.torpedoPos);
+        cm2 = ClientMessage.deserialize(new ByteArrayInputStream(out.toByteArray())).unwrap();
+        assertEquals(cm.torpedoPos, cm2.torpedoPos);
+
+        ServerMessage sm = ServerMessage.TurnChange("abc123", false);
+        buffer.clear();
+        sm.serialize(buffer);
+        buffer.flip();
+        ServerMessage sm2 = ServerMessage.deserialize(buffer).unwrap();
+        assertEquals(sm.messageType, sm2.messageType);
+        assertEquals(sm.isYourTurn, sm2.isYourTurn);
+
+        ByteBuffer small = ByteBuffer.allocate(4);
+        try {
+            sm.serialize(small);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, small.position());
+        }
+        assertTrue(ServerMessage.deserialize("{".getBytes(StandardCharsets.UTF_8)).isErr());
+    }
+
+    @Test
+    public void testClientMessageDecoderFollowsSchema() {
+        ClientMessage cm = ClientMessage.deserialize(
+                "{\"type\":4,\"sessionId\":\"abc123\",\"ship\":{\"pos\":{\"x\":1,\"y\":2},\"orientation\":\"Horizontal\",\"size\":3}}")
+                .unwrap();
+        assertEquals(ClientMessageType.PlaceShip, cm.type);
+        assertEquals(new Vec2(1, 2), cm.ship.getStartPos());
+        assertEquals(3, cm.ship.getPositions().size());
+
+        cm = ClientMessage.deserialize("{\"isPrivateSession\":null,\"type\":0}").unwrap();
+        assertEquals(ClientMessageType.CreateSession, cm.type);
+        assertEquals(false, cm.isPrivateSession);
+
+        assertTrue(ClientMessage.deserialize("{\"sessionId\":\"abc123\"}").isErr());
+        assertTrue(ClientMessage.deserialize("{\"type\":9}").isErr());
+        assertTrue(ClientMessage.deserialize("{\"type\":1,\"unknown\":1}").isErr());
+        assertTrue(ClientMessage.deserialize("[1]").isErr());
+        assertTrue(ClientMessage.deserialize("{\"type\":3,\"sessionId\":\"a\",\"torpedoPos\":{\"x\":\"1\"}}").isErr());
+    }
+
+    @Test
+    public void testBinaryFramesRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        BinaryCodec.encode(ClientMessage.CreateSession(true, WireFormat.Binary), buffer);
+        BinaryCodec.encode(ClientMessage.PlaceShip("abc123", new Ship(new Vec2(-1, 2), Orientation.Vertical, 3)), buffer);
+        BinaryCodec.encode(ServerMessage.GameStart("abc123", true, new Vec2(10, 10), Arrays.asList(2, 3), 5), buffer);
+        buffer.flip();
+        assertEquals(WireFormat.Binary, WireFormat.detect(buffer.get(0)));
+
+        ClientMessage cm = BinaryCodec.decodeClientMessage(buffer).unwrap();
+        assertEquals(ClientMessageType.CreateSession, cm.type);
+        assertEquals(true, cm.isPrivateSession);
+        assertEquals(WireFormat.Binary, cm.wireFormat);
+
+        cm = BinaryCodec.decodeClientMessage(buffer).unwrap();
+        assertEquals("abc123", cm.sessionId);
+        assertEquals(new Vec2(-1, 2), cm.ship.getStartPos());
+        assertEquals(Orientation.Vertical, cm.ship.getOrientation());
+        assertEquals(3, cm.ship.getSize());
+
+        ServerMessage sm = BinaryCodec.decodeServerMessage(buffer).unwrap();
+        assertEquals(ServerMessage.GameStart("abc123", true, new Vec2(10, 10), Arrays.asList(2, 3), 5).serialize(), sm.serialize());
+        assertEquals(buffer.limit(), buffer.position());
+
+        byte[] frame = BinaryCodec.encode(ClientMessage.SendTorpedo("abc123", new Vec2(1, 2)));
+        assertTrue(BinaryCodec.decodeClientMessage(frame, 0, frame.length - 1).isErr());
+        assertEquals(WireFormat.Json, WireFormat.detect(ClientMessage.FindSession().serialize().getBytes(StandardCharsets.UTF_8)[0]));
+        byte[] withBom = ("\ufeff" + ClientMessage.FindSession().serialize()).getBytes(StandardCharsets.UTF_8);
+        assertEquals(WireFormat.Json, WireFormat.detect(withBom[0]));
+        assertEquals(ClientMessageType.FindSession, ClientMessage.deserialize(withBom).unwrap().type);
+        assertEquals(ClientMessageType.FindSession, ClientMessageDecoder.decode(withBom, 0, withBom.length).unwrap().type);
+
+        // an error can come without a type
+        ServerMessage typeless = ServerMessage.deserialize(
+                "{\"errorMessage\":" + ErrorMessage.SessionNotFound("abc123").serialize() + "}").unwrap();
+        frame = BinaryCodec.encode(typeless);
+        assertEquals(typeless.serialize(), BinaryCodec.decodeServerMessage(frame, 0, frame.length).unwrap().serialize());
+
+        ClientMessage incomplete = ClientMessage.SendTorpedo(null, new Vec2(1, 2));
+        buffer.clear();
+        try {
+            BinaryCodec.encode(incomplete, buffer);
+            fail("encoded a torpedo without a session");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void testErrorMessagesAreIndependent() {
+        ErrorMessage first = ErrorMessage.SessionNotFound("first");
+        ErrorMessage second = ErrorMessage.SessionNotFound("second");
+        assertEquals(ErrorCode.SessionNotFound, first.getCode());
+        assertEquals("first", first.getVars().get("sessionId"));
+        assertEquals(1, second.getVars().size());
+        assertEquals("{\"SessionNotFound\":{\"reason\":\"Session with id: `first` does not exist.\",\"vars\":{\"sessionId\":\"first\"}}}",
+                first.serialize());
+
+        ErrorMessage em = ErrorMessage.deserialize(second.serialize()).unwrap();
+        assertEquals(ErrorCode.SessionNotFound, em.getCode());
+        assertEquals(second.getReason(), em.getReason());
+        assertEquals(second.getVars(), em.getVars());
+
+        Map<String, Object> vars = new HashMap<>();
+        vars.put("type", "ClientMessage");
+        ErrorMessage malformed = ErrorMessage.MalformedMessage("ClientMessage", "bad", vars);
+        vars.put("input", "changed later");
+        assertEquals(1, malformed.getVars().size());
+    }
+
+    @Test
+    public void testServerMessageBatchFramesLikeSerialize() {
+        ServerMessage ack = ServerMessage.SendTorpedoAck("s", new Vec2(1, 2), true);
+        ServerMessage turn = ServerMessage.TurnChange("s", false);
+
+        ServerMessageBatch array = new ServerMessageBatch(ServerMessageBatch.Framing.JsonArray);
+        array.add(ack).add(turn);
+        assertEquals(2, array.size());
+        assertEquals("[" + ack.serialize() + "," + turn.serialize() + "]",
+                new String(array.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue(array.isEmpty());
+        assertEquals("[]", new String(array.toByteArray(), StandardCharsets.UTF_8));
+
+        ServerMessageBatch lines = new ServerMessageBatch(ServerMessageBatch.Framing.NewlineDelimited);
+        lines.add(ack);
+        ByteBuffer small = ByteBuffer.allocate(4);
+        try {
+            lines.writeTo(small);
+            fail("Expected the frame not to fit");
+        } catch (BufferOverflowException e) {
+            assertEquals(0, small.position());
+        }
+        lines.add(turn);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int written = lines.writeTo(buffer);
+        assertEquals(ack.serialize() + "\n" + turn.serialize() + "\n",
+                new String(buffer.array(), 0, written, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testServerMessageTemplatesMatchSerialize() throws IOException {
+        for (ServerMessage sm : new ServerMessage[] {
+                ServerMessage.Ack(),
+                ServerMessage.EnemyDisconnected("s"),
+                ServerMessage.TurnChange("s", true),
+                ServerMessage.TurnChange("\"quoted\" \u00e9\n", false),
+                ServerMessage.GameStart("s", true, new Vec2(10, 10), Arrays.asList(5, 4, 3), 12),
+                ServerMessage.GameStart("s", false, new Vec2(10, 10), Arrays.asList(5, 4, 3), 12),
+                ServerMessage.GameStart("s", false, new Vec2(8, 8), Arrays.asList(2), 2),
+                ServerMessage.GameEnd(10, true),
+                ServerMessage.GiveSessionId("s") }) {
+            byte[] expected = sm.serialize().getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(expected, ServerMessageTemplates.render(sm));
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            assertEquals(expected.length, sm.serialize(buffer));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            sm.serialize(output);
+            assertArrayEquals(expected, output.toByteArray());
+        }
+    }
+
+    @Test
+    public void testMessagesCanBeReused() {
+        ClientMessage cm = new ClientMessage();
+        byte[] place = ClientMessage.PlaceShip("s", new Ship(new Vec2(1, 2), Orientation.Vertical, 3)).serialize()
+                .getBytes(StandardCharsets.UTF_8);
+        assertNull(ClientMessageDecoder.decodeInto(place, 0, place.length, cm));
+        Ship ship = cm.ship;
+        String sessionId = cm.sessionId;
+
+        byte[] again = ClientMessage.PlaceShip("s", new Ship(new Vec2(3, 0), Orientation.Horizontal, 2)).serialize()
+                .getBytes(StandardCharsets.UTF_8);
+        assertNull(ClientMessageDecoder.decodeInto(again, 0, again.length, cm));
+        assertSame(ship, cm.ship);
+        assertSame(sessionId, cm.sessionId);
+        assertEquals(new Vec2(3, 0), cm.ship.getStartPos());
+        assertEquals(Orientation.Horizontal, cm.ship.getOrientation());
+        assertEquals(2, cm.ship.getSize());
+
+        assertNull(ClientMessageDecoder.decodeInto(ClientMessage.FindSession().serialize(), cm));
+        assertEquals(ClientMessageType.FindSession, cm.type);
+        assertNull(cm.ship);
+        assertNull(cm.sessionId);
+        assertEquals(ErrorCode.MalformedMessage, ClientMessageDecoder.decodeInto("{}", cm).getCode());
+
+        ServerMessage sm = ServerMessage.Empty();
+        assertEquals(ServerMessage.SendTorpedoAck("s", new Vec2(1, 1), true).serialize(),
+                sm.fillSendTorpedoAck("s", new Vec2(1, 1), true).serialize());
+        assertEquals(ServerMessage.TurnChange("s", false).serialize(), sm.fillTurnChange("s", false).serialize());
+        assertEquals(ServerMessage.Ack().serialize(), sm.fillAck().serialize());
+    }
+
+    @Test
+    public void testCompactServerMessageIsWireCompatible() {
+        ServerMessage[] messages = {
+                ServerMessage.Ack(),
+                ServerMessage.GameStart("s", true, new Vec2(10, 10), Arrays.asList(5, 4, 3), 12),
+                ServerMessage.GameEnd(123456789012L, false),
+                ServerMessage.SendTorpedoAck("s", new Vec2(3, 4), true),
+                ServerMessage.ReceiveTorpedo("s", new Vec2(3, 4)),
+                ServerMessage.TurnChange("s", false) };
+        for (ServerMessage sm : messages) {
+            String json = sm.serialize();
+            CompactServerMessage compact = CompactServerMessage.from(sm);
+            assertEquals(json, compact.serialize());
+            CompactServerMessage read = CompactServerMessage.deserialize(json).unwrap();
+            assertEquals(json, read.serialize());
+            assertEquals(json, read.toServerMessage().serialize());
+        }
+
+        CompactServerMessage m = new CompactServerMessage().fillGameStart("s", false, new Vec2(8, 8), new int[] {2, 3}, 5);
+        assertEquals(ServerMessage.GameStart("s", false, new Vec2(8, 8), Arrays.asList(2, 3), 5).serialize(), m.serialize());
+        assertTrue(m.hasYourTurn());
+        assertFalse(m.fillGameEnd(1, true).hasYourTurn());
+        assertTrue(CompactServerMessage.deserialize("{\"messageType\":42}").isErr());
+    }
+
+    @Test
+    public void testServerMessageDecoderReportsErrorsAndCallsHandler() {
+        assertTrue(ServerMessage.deserialize("{\"messageType\":").isErr());
+        assertTrue(ServerMessage.deserialize("{\"messageType\":5}").isErr());
+        assertTrue(ServerMessage.deserialize("{\"messageType\":0,\"unknown\":1}").isErr());
+        assertEquals(ErrorCode.MalformedMessage, ServerMessage.deserialize("[]").unwrapErr().getCode());
+
+        ServerMessage error = ServerMessage.Ack();
+        error.errorMessage = ErrorMessage.SessionNotFound("abc123");
+        assertEquals(error.serialize(), ServerMessage.deserialize(error.serialize()).unwrap().serialize());
+
+        List<String> calls = new ArrayList<>();
+        ServerMessageHandler handler = new ServerMessageHandler() {
+            @Override
+            public void onTurnChange(String sessionId, boolean isYourTurn) {
+                calls.add("TurnChange " + sessionId + " " + isYourTurn);
+            }
+
+            @Override
+            public void onReceiveTorpedo(String sessionId, Vec2 torpedoPos) {
+                calls.add("ReceiveTorpedo " + sessionId + " " + torpedoPos);
+            }
+
+            @Override
+            public void onError(ServerMessageType type, ErrorMessage error) {
+                calls.add("Error " + error.getCode());
+            }
+        };
+        for (ServerMessage sm : new ServerMessage[] {
+                ServerMessage.ReceiveTorpedo("s", new Vec2(1, 2)),
+                ServerMessage.TurnChange("s", true),
+                ServerMessage.Ack(),
+                error }) {
+            byte[] bytes = sm.serialize().getBytes(StandardCharsets.UTF_8);
+            assertNull(ServerMessageDecoder.decode(bytes, 0, bytes.length, handler));
+        }
+        assertEquals(Arrays.asList("ReceiveTorpedo s " + new Vec2(1, 2), "TurnChange s true", "Error SessionNotFound"), calls);
+    }
+
+    @Test
+    public void testClientMessageHandlerIsCalledByType() {
+        List<String> calls = new ArrayList<>();
+        ClientMessageHandler handler = new ClientMessageHandler() {
+            @Override
+            public void onCreateSession(boolean isPrivateSession, WireFormat wireFormat) {
+                calls.add("CreateSession " + isPrivateSession + " " + wireFormat);
+            }
+
+            @Override
+            public void onFindSession() {
+                calls.add("FindSession");
+            }
+
+            @Override
+            public void onJoinSession(String sessionId, WireFormat wireFormat) {
+                calls.add("JoinSession " + sessionId);
+            }
+
+            @Override
+            public void onSendTorpedo(String sessionId, Vec2 torpedoPos) {
+                calls.add("SendTorpedo " + sessionId + " " + torpedoPos);
+            }
+
+            @Override
+            public void onPlaceShip(String sessionId, Ship ship) {
+                calls.add("PlaceShip " + sessionId + " " + ship.getSize());
+            }
+        };
+
+        ClientMessage scratch = new ClientMessage();
+        for (ClientMessage cm : new ClientMessage[] {
+                ClientMessage.CreateSession(true, WireFormat.Binary),
+                ClientMessage.FindSession(),
+                ClientMessage.JoinSession("s"),
+                ClientMessage.SendTorpedo("s", new Vec2(1, 2)),
+                ClientMessage.PlaceShip("s", new Ship(new Vec2(0, 0), Orientation.Horizontal, 3)) }) {
+            byte[] bytes = cm.serialize().getBytes(StandardCharsets.UTF_8);
+            assertNull(ClientMessageDecoder.decode(bytes, 0, bytes.length, scratch, handler));
+        }
+        assertEquals(ErrorCode.MalformedMessage, ClientMessageDecoder.decode("{\"type\":3}", scratch, handler).getCode());
+        assertEquals(Arrays.asList("CreateSession true Binary", "FindSession", "JoinSession s",
+                "SendTorpedo s " + new Vec2(1, 2), "PlaceShip s 3"), calls);
+    }
+
+    @Test
+    public void testMetricsCountMessagesByType() throws IOException {
+        MetricsRecorder metrics = new MetricsRecorder();
+        Metrics.setSink(metrics);
+        try {
+            ClientMessage.deserialize(ClientMessage.FindSession().serialize());
+            ClientMessage.deserialize("{\"type\":3}");
+            ClientMessage.deserialize("not json");
+            ServerMessage.Ack().serialize(new ByteArrayOutputStream());
+            ServerMessage.GameEnd(5, true).serialize();
+            // an error can come without a type, measuring it must not change the output
+            String typeless = "{\"errorMessage\":" + ErrorMessage.SessionNotFound("abc123").serialize() + "}";
+            assertEquals(typeless, ServerMessage.deserialize(typeless).unwrap().serialize());
+            ServerMessage.deserialize(typeless).unwrap().serialize(new ByteArrayOutputStream());
+        } finally {
+            Metrics.setSink(null);
+        }
+        ClientMessage.deserialize(ClientMessage.FindSession().serialize());
+
+        assertEquals(1, metrics.getDecoded(ClientMessageType.FindSession));
+        assertEquals(1, metrics.getMalformed(ClientMessageType.SendTorpedo));
+        assertEquals(1, metrics.getMalformed(null));
+        assertEquals(1, metrics.getDecodeLatency(ClientMessageType.FindSession).getCount());
+        assertEquals(1, metrics.getEncoded(ServerMessageType.Ack));
+        assertEquals(1, metrics.getEncoded(ServerMessageType.GameEnd));
+        assertEquals(0, metrics.getEncoded(ServerMessageType.TurnChange));
+        assertEquals(2, metrics.getEncoded(null));
+        assertEquals(2, metrics.getEncodeLatency(null).getCount());
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++)
+            histogram.record(value);
+        histogram.record(1_000_000_000L);
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1_000_000_000L, histogram.getMax());
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(median >= 500 && median <= 500 + 500 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1_000_000_000L, histogram.getValueAtPercentile(100));
+    }
 }
@@ -0,0 +1,324 @@
+package com.csabapro;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.csabapro.core.bot.RandomTargeting;
+import com.csabapro.core.bot.TorpedoBot;
+import com.csabapro.core.game.Board;
+import com.csabapro.core.game.Orientation;
+import com.csabapro.core.game.Ship;
+import com.csabapro.core.game.Vec2;
+import com.csabapro.core.messaging.ClientMessage;
+import com.csabapro.core.messaging.ErrorCode;
+import com.csabapro.core.messaging.ErrorMessage;
+import com.csabapro.core.messaging.ServerMessage;
+import com.csabapro.core.messaging.ServerMessageType;
+import com.csabapro.core.replay.EventLog;
+import com.csabapro.core.replay.EventLogReader;
+import com.csabapro.core.replay.RecordType;
+import com.csabapro.core.replay.Replayer;
+import com.csabapro.core.session.GameRules;
+import com.csabapro.core.session.GameSession;
+import com.csabapro.core.session.SessionListener;
+import com.csabapro.core.session.SessionExecutor;
+import com.csabapro.core.session.SessionPhase;
+import com.csabapro.core.session.SessionRegistry;
+import com.csabapro.core.simulation.GameSimulator;
+import com.csabapro.core.simulation.SimulationReport;
+
+public class SessionTests {
+    static class RecordingListener implements SessionListener {
+        final List<String> log = new ArrayList<>();
+
+        @Override
+        public synchronized void onMessage(int player, ServerMessage message) {
+            log.add(player + ":" + message.messageType);
+        }
+
+        @Override
+        public synchronized void onError(int player, ErrorMessage error) {
+            log.add(player + ":" + error.getCode());
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final GameRules RULES = new GameRules(new Vec2(4, 4), Arrays.asList(2));
+
+    @Test
+    public void testSessionPlaysAGame() {
+        RecordingListener listener = new RecordingListener();
+        GameSession session = new GameSession("s", false, RULES, listener);
+        assertTrue(session.isOpen());
+        assertEquals(GameSession.GUEST, (int) session.join().unwrap());
+        assertEquals(ErrorCode.TooManyPlayers, session.join().unwrapErr().getCode());
+
+        session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(0, 0)));
+        session.submit(GameSession.HOST, ClientMessage.PlaceShip("s", new Ship(new Vec2(3, 0), Orientation.Horizontal, 2)));
+        session.submit(GameSession.HOST, ClientMessage.PlaceShip("s", new Ship(new Vec2(0, 0), Orientation.Horizontal, 3)));
+        session.submit(GameSession.HOST, ClientMessage.PlaceShip("s", new Ship(new Vec2(0, 0), Orientation.Horizontal, 2)));
+        session.submit(GameSession.GUEST, ClientMessage.PlaceShip("s", new Ship(new Vec2(1, 1), Orientation.Vertical, 2)));
+        assertEquals(SessionPhase.Battle, session.getPhase());
+
+        session.submit(GameSession.GUEST, ClientMessage.SendTorpedo("s", new Vec2(0, 0)));
+        session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(1, 1)));
+        session.submit(GameSession.GUEST, ClientMessage.SendTorpedo("s", new Vec2(9, 9)));
+        session.submit(GameSession.GUEST, ClientMessage.SendTorpedo("s", new Vec2(3, 3)));
+        session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(1, 2)));
+        assertEquals(SessionPhase.Ended, session.getPhase());
+
+        assertEquals(Arrays.asList(
+                "0:GameStart", "1:GameStart",
+                "0:ActionOutOfTurn", "0:ShipOutOfBounds", "0:IncorrectShipSize", "0:Ack", "1:Ack",
+                "0:TurnChange", "1:TurnChange",
+                "1:PlayerOutOfTurn",
+                "0:SendTorpedoAck", "1:ReceiveTorpedo", "1:TurnChange", "0:TurnChange",
+                "1:TorpedoOutOfBounds",
+                "1:SendTorpedoAck", "0:ReceiveTorpedo", "0:TurnChange", "1:TurnChange",
+                "0:SendTorpedoAck", "1:ReceiveTorpedo", "0:GameEnd", "1:GameEnd"), listener.log);
+    }
+
+    @Test
+    public void testSessionHandlesConcurrentSubmitsOneAtATime() throws InterruptedException {
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        SessionListener listener = new SessionListener() {
+            @Override
+            public void onMessage(int player, ServerMessage message) {
+            }
+
+            @Override
+            public void onError(int player, ErrorMessage error) {
+                maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                errors.incrementAndGet();
+                inside.decrementAndGet();
+            }
+        };
+        GameSession session = new GameSession("s", false, RULES, listener);
+        session.join();
+
+        int threads = 4;
+        int perThread = 10_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++)
+                    session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(0, 0)));
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        assertEquals(threads * perThread, errors.get());
+        assertEquals(1, maxInside.get());
+    }
+
+    @Test
+    public void testDisconnectNotifiesTheEnemy() {
+        RecordingListener listener = new RecordingListener();
+        GameSession session = new GameSession("s", false, RULES, listener);
+        session.join();
+        session.disconnect(GameSession.GUEST);
+        assertEquals(SessionPhase.Ended, session.getPhase());
+        assertEquals("0:" + ServerMessageType.EnemyDisconnected, listener.log.get(listener.log.size() - 1));
+
+        // a lobby that ended before a guest came can not be joined, and its host had no enemy to lose
+        SessionRegistry registry = new SessionRegistry(RULES, 1);
+        RecordingListener lobbyListener = new RecordingListener();
+        GameSession abandoned = registry.create(true, lobbyListener);
+        abandoned.disconnect(GameSession.HOST);
+        assertFalse(abandoned.isOpen());
+        assertEquals(ErrorCode.SessionNotFound, registry.join(abandoned.getSessionId()).unwrapErr().getCode());
+        GameSession closed = registry.create(false, lobbyListener);
+        closed.close();
+        assertEquals(ErrorCode.SessionNotFound, closed.join().unwrapErr().getCode());
+        assertTrue(registry.findAndJoin().isErr());
+        assertTrue(lobbyListener.log.isEmpty());
+    }
+
+    @Test
+    public void testRegistryListsAndJoinsOpenLobbies() {
+        SessionRegistry registry = new SessionRegistry(RULES, 3);
+        RecordingListener listener = new RecordingListener();
+        GameSession first = registry.create(false, listener);
+        GameSession hidden = registry.create(true, listener);
+        GameSession second = registry.create(false, listener);
+        assertEquals(3, registry.size());
+        assertEquals(Arrays.asList(first, second), registry.findSessions(10));
+        assertEquals(Arrays.asList(first), registry.findSessions(1));
+
+        assertEquals(hidden, registry.join(hidden.getSessionId()).unwrap());
+        assertEquals(ErrorCode.TooManyPlayers, registry.join(hidden.getSessionId()).unwrapErr().getCode());
+        assertEquals(ErrorCode.SessionNotFound, registry.join("missing").unwrapErr().getCode());
+
+        registry.join(first.getSessionId());
+        assertEquals(Arrays.asList(second), registry.findSessions(10));
+        registry.remove(second.getSessionId());
+        assertTrue(registry.findSessions(10).isEmpty());
+        ErrorMessage noLobby = registry.findAndJoin().unwrapErr();
+        assertEquals(ErrorCode.NoOpenSession, noLobby.getCode());
+        assertEquals("{\"NoOpenSession\":{\"reason\":\"There is no public session waiting for a guest.\",\"vars\":{}}}",
+                noLobby.serialize());
+        assertEquals(noLobby.serialize(), ErrorMessage.deserialize(noLobby.serialize()).unwrap().serialize());
+        assertEquals("Session with id: `null` does not exist.", ErrorMessage.SessionNotFound(null).getReason());
+    }
+
+    @Test
+    public void testExecutorMailboxAppliesBackpressure() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        List<String> log = new ArrayList<>();
+        SessionListener listener = new SessionListener() {
+            @Override
+            public void onMessage(int player, ServerMessage message) {
+                log.add(player + ":" + message.messageType);
+                if (message.messageType == ServerMessageType.EnemyDisconnected && player == GameSession.GUEST)
+                    closed.countDown();
+            }
+
+            @Override
+            public void onError(int player, ErrorMessage error) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                log.add(player + ":" + error.getCode());
+            }
+        };
+
+        try (SessionExecutor executor = SessionExecutor.eventLoop(2)) {
+            GameSession session = new GameSession("s", false, RULES, listener, executor, 2);
+            session.join();
+            // the first message blocks the loop, the mailbox holds two
+            assertTrue(session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(0, 0))));
+            while (!session.submit(GameSession.GUEST, ClientMessage.SendTorpedo("s", new Vec2(0, 0))))
+                Thread.yield();
+            assertFalse(session.submit(GameSession.GUEST, ClientMessage.SendTorpedo("s", new Vec2(0, 0))));
+
+            release.countDown();
+            session.close();
+            closed.await();
+        }
+        assertEquals(Arrays.asList("0:" + ServerMessageType.GameStart, "1:" + ServerMessageType.GameStart,
+                "0:" + ErrorCode.ActionOutOfTurn, "1:" + ErrorCode.ActionOutOfTurn,
+                "0:" + ServerMessageType.EnemyDisconnected, "1:" + ServerMessageType.EnemyDisconnected), log);
+    }
+
+    @Test
+    public void testReplayedSessionSendsTheRecordedMessages() throws IOException {
+        List<String> recorded = new ArrayList<>();
+        List<String> replayed = new ArrayList<>();
+        List<String> lobbyReplayed = new ArrayList<>();
+        Path file = folder.getRoot().toPath().resolve("sessions.log");
+        long[] clock = { 1000 };
+        try (EventLog log = EventLog.create(file, 1024, 2)) {
+            // a second session fills the log so the first one spans segments
+            SessionListener other = log.record("other", true, RULES, timedListener(new ArrayList<>()));
+            GameSession session = new GameSession("s", false, RULES, log.record("s", false, RULES, timedListener(recorded)),
+                    () -> clock[0] += 7);
+            session.join();
+            // a lobby nobody joined must not start a game when it is replayed
+            new GameSession("lobby", false, RULES, log.record("lobby", false, RULES, timedListener(new ArrayList<>())));
+            for (int i = 0; i < 100; i++)
+                other.onTorpedoFired(GameSession.HOST, new Vec2(i % 4, 0), i);
+            session.submit(GameSession.HOST, ClientMessage.PlaceShip("s", new Ship(new Vec2(0, 0), Orientation.Horizontal, 2)));
+            session.submit(GameSession.GUEST, ClientMessage.PlaceShip("s", new Ship(new Vec2(1, 1), Orientation.Vertical, 2)));
+            session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(1, 1)));
+            session.submit(GameSession.GUEST, ClientMessage.SendTorpedo("s", new Vec2(3, 3)));
+            session.submit(GameSession.HOST, ClientMessage.SendTorpedo("s", new Vec2(1, 2)));
+            assertEquals(SessionPhase.Ended, session.getPhase());
+        }
+
+        Replayer replayer = new Replayer(id -> id.equals("s") ? timedListener(replayed)
+                : id.equals("lobby") ? timedListener(lobbyReplayed) : timedListener(new ArrayList<>()));
+        try (EventLogReader reader = EventLogReader.open(file)) {
+            assertEquals(105, replayer.replay(reader));
+        }
+        assertEquals(SessionPhase.Ended, replayer.getSession("s").getPhase());
+        assertEquals(recorded, replayed);
+        assertEquals(SessionPhase.WaitingForPlayer, replayer.getSession("lobby").getPhase());
+        assertTrue(lobbyReplayed.isEmpty());
+        assertTrue(recorded.contains("0:GameEnd@21"));
+
+        try (EventLogReader reader = EventLogReader.open(file)) {
+            // the last snapshot is taken after the fourth move
+            reader.seek(reader.findRecoveryPoint("s"));
+            assertTrue(reader.next());
+            assertEquals(RecordType.Snapshot, reader.getType());
+            long snapshotTime = reader.getTimestamp();
+            while (reader.next() && reader.getType() != RecordType.Torpedo) {}
+            assertEquals(new Vec2(1, 2), reader.getPos());
+            assertTrue(reader.getTimestamp() > snapshotTime);
+            assertEquals(-1, reader.findRecoveryPoint("missing"));
+        }
+        try (EventLogReader reader = EventLogReader.open(file)) {
+            Board[] boards = Replayer.restoreBoards(reader, "s");
+            assertTrue(boards[GameSession.GUEST].isDefeated());
+            assertEquals(0, boards[GameSession.HOST].getHits());
+            assertTrue(boards[GameSession.HOST].isFiredAt(3, 3));
+        }
+    }
+
+    private static SessionListener timedListener(List<String> log) {
+        return new SessionListener() {
+            @Override
+            public void onMessage(int player, ServerMessage message) {
+                log.add(player + ":" + message.messageType + (message.gameTimeInNs != null ? "@" + message.gameTimeInNs : ""));
+            }
+
+            @Override
+            public void onError(int player, ErrorMessage error) {
+                log.add(player + ":" + error.getCode());
+            }
+        };
+    }
+
+    @Test
+    public void testSimulatorPlaysCompleteGames() {
+        GameRules rules = new GameRules(new Vec2(12, 12), Arrays.asList(5, 4, 3, 3, 2));
+        GameSimulator simulator = new GameSimulator(rules, TorpedoBot::new, RandomTargeting::new);
+
+        SimulationReport direct = simulator.run(2000, 42, GameSimulator.Mode.Direct);
+        assertEquals(2000, direct.getGames());
+        assertEquals(0, direct.getUnfinished());
+        // the probability density bot beats random fire
+        assertTrue(direct.getHostWins() > 1900);
+        assertTrue(direct.getTurns().getValueAtPercentile(0) >= 2 * 17 - 1);
+        assertTrue(direct.getTurns().getMax() <= 2 * 144);
+        assertEquals(direct.getTurns().getMean(), simulator.run(2000, 42, GameSimulator.Mode.Direct).getTurns().getMean(), 0);
+
+        SimulationReport session = simulator.run(300, 42, GameSimulator.Mode.Session);
+        assertEquals(300, session.getGames());
+        assertEquals(0, session.getUnfinished());
+        // both modes play the same games
+        SimulationReport sameGames = simulator.run(300, 42, GameSimulator.Mode.Direct);
+        assertEquals(sameGames.getTurns().getMean(), session.getTurns().getMean(), 0);
+        assertEquals(sameGames.getHitRatios().getMean(), session.getHitRatios().getMean(), 0);
+    }
+}